@@ -0,0 +1,244 @@
+package DataAnalysis;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+//
+// Throughput and allocation benchmarks for the parsing, detection and
+// aggregation stages, run on synthetic data.
+//
+// Usage: DataAnalysisBenchmark [-steps 1,5,15] [-years 1,5] [-iterations 5]
+//
+// Each stage is warmed up, then timed over the measured iterations.
+// Allocation comes from the thread MXBean and so only counts the calling
+// thread; the parallel stages report the allocation of their coordinator.
+//
+public class DataAnalysisBenchmark
+{
+	int warmup = 3;
+	int iterations = 5;
+	int[] steps = { 1, 5, 15 };
+	int[] years = { 1, 5 };
+	com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+	interface Stage
+	{
+		// Returns the number of records processed
+		long run() throws Exception;
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		DataAnalysisBenchmark bench = new DataAnalysisBenchmark();
+		for (int i = 0; i + 1 < args.length; i += 2)
+		{
+			if (args[i].equals("-steps"))
+				bench.steps = ints(args[i + 1]);
+			else if (args[i].equals("-years"))
+				bench.years = ints(args[i + 1]);
+			else if (args[i].equals("-iterations"))
+				bench.iterations = Integer.parseInt(args[i + 1]);
+			else if (args[i].equals("-warmup"))
+				bench.warmup = Integer.parseInt(args[i + 1]);
+		}
+		bench.runAll();
+	}
+
+	void runAll() throws Exception
+	{
+		System.out.println(String.format("%-32s %14s %12s %12s", "stage", "records/s", "alloc MB/s", "bytes/rec"));
+		for (int y : years)
+		{
+			runAggregation(y);
+			for (int step : steps)
+				runWell(y, step);
+		}
+	}
+
+	void runWell(int y, int step) throws Exception
+	{
+		String label = y + "y/" + step + "min ";
+		SyntheticData data = new SyntheticData(y * 100 + step);
+		WellSeries series = data.wellSeries(LocalDateTime.of(2020, 1, 1, 0, 0), y, step);
+		File text = File.createTempFile("WellReadings", ".data");
+		File cache = WellSeriesCache.cacheFileFor(text.getPath());
+		File columns = MappedWellSeries.fileFor(text.getPath());
+		try
+		{
+			data.writeWellReadings(series, text);
+			WellSeriesCache.write(series, cache, text);
+			measure(label + "parse text", () -> WellReadingsReader.read(text.getPath(), null, null).size());
+			measure(label + "load cache", () -> WellSeriesCache.load(cache, text).size());
+			MappedWellSeries.write(series, columns, text);
+			measure(label + "map columns", () -> MappedWellSeries.load(columns, text).size());
+			RiseDetector rises = new RiseDetector(DataAnalysisMain.MINRISE);
+			PeakDetector peaks = new PeakDetector(DataAnalysisMain.DOWNPOINTS, 0);
+			measure(label + "rise times", () -> {
+				rises.findRises(series);
+				return series.size();
+			});
+			measure(label + "rise times parallel", () -> {
+				rises.findRises(series, ForkJoinPool.commonPool());
+				return series.size();
+			});
+			measure(label + "peaks", () -> {
+				peaks.findPeaks(series);
+				return series.size();
+			});
+			measure(label + "peaks parallel", () -> {
+				peaks.findPeaks(series, ForkJoinPool.commonPool());
+				return series.size();
+			});
+			WellSeries mapped = MappedWellSeries.load(columns, text);
+			measure(label + "peaks parallel mapped", () -> {
+				peaks.findPeaks(mapped, ForkJoinPool.commonPool());
+				return mapped.size();
+			});
+			measure(label + "stream detect", () -> {
+				long[] count = new long[1];
+				RiseDetector.Tracker riseTracker = rises.tracker(r -> {
+				});
+				PeakDetector.Tracker peakTracker = peaks.tracker(p -> {
+				});
+				WellReadingsReader.stream(text.getPath(), null, null, (minute, compensated, original, water, air) -> {
+					riseTracker.depth(minute, compensated);
+					peakTracker.depth(minute, compensated);
+					count[0]++;
+				});
+				return count[0];
+			});
+			measure(label + "build pyramid", () -> {
+				WellPyramid pyramid = new WellPyramid(DayOfWeek.SUNDAY);
+				for (int i = 0; i < series.size(); i++)
+					pyramid.reading(series.minute(i), series.compensatedDepth(i), 0, 0, 0);
+				return series.size();
+			});
+			// mean depth of every year, from the readings and from weekly
+			// buckets, as readings covered per second
+			double[] means = new double[2];
+			WellPyramid pyramid = new WellPyramid(DayOfWeek.SUNDAY);
+			for (int i = 0; i < series.size(); i++)
+				pyramid.reading(series.minute(i), series.compensatedDepth(i), 0, 0, 0);
+			measure(label + "yearly means raw", () -> {
+				double total = 0;
+				for (int year = 2020; year < 2020 + y; year++)
+				{
+					WellSeries range = series.subset(LocalDateTime.of(year, 1, 1, 0, 0), LocalDateTime.of(year, 12, 31, 23, 59));
+					double sum = 0;
+					for (int i = 0; i < range.size(); i++)
+						sum += range.compensatedDepth(i);
+					total += sum / range.size();
+				}
+				means[0] = total;
+				return series.size();
+			});
+			measure(label + "yearly means pyramid", () -> {
+				double total = 0;
+				for (int year = 2020; year < 2020 + y; year++)
+					total += pyramid.summary(LocalDateTime.of(year, 1, 1, 0, 0), LocalDateTime.of(year, 12, 31, 23, 59),
+							7 * 1440).mean;
+				means[1] = total;
+				return series.size();
+			});
+			// depth statistics over the whole column, as loops and as the
+			// kernels in use
+			double[] depth = Arrays.copyOfRange(series.compensatedDepth, series.offset, series.offset + series.size());
+			measure(label + "stats loop", () -> {
+				double sum = 0;
+				double min = Double.POSITIVE_INFINITY;
+				double max = Double.NEGATIVE_INFINITY;
+				for (double d : depth)
+					if (d == d)
+					{
+						sum += d;
+						min = Math.min(min, d);
+						max = Math.max(max, d);
+					}
+				means[0] = sum + min + max;
+				return depth.length;
+			});
+			measure(label + "stats " + Kernels.name(), () -> {
+				means[1] = Kernels.sum(depth, 0, depth.length) + Kernels.min(depth, 0, depth.length)
+						+ Kernels.max(depth, 0, depth.length);
+				return depth.length;
+			});
+			ArrayList<Peak> found = peaks.findPeaks(series);
+			measure(label + "aggregate peaks", () -> {
+				BucketAggregator agg = new BucketAggregator();
+				for (Peak peak : found)
+					agg.add(peak.dateTime.toLocalDate(), peak.value);
+				return found.size();
+			});
+		}
+		finally
+		{
+			text.delete();
+			cache.delete();
+			columns.delete();
+		}
+	}
+
+	void runAggregation(int y) throws Exception
+	{
+		String label = y + "y/daily ";
+		LocalDate start = LocalDate.of(2020, 1, 1);
+		int days = (int) (start.plusYears(y).toEpochDay() - start.toEpochDay());
+		SyntheticData data = new SyntheticData(y);
+		double[] usage = data.dailyUsage(start, days);
+		double[] rain = data.dailyRainfall(start, days);
+		LocalDate[] dates = new LocalDate[days];
+		for (int i = 0; i < days; i++)
+			dates[i] = start.plusDays(i);
+		measure(label + "aggregate usage", () -> aggregate(dates, usage));
+		measure(label + "aggregate rainfall", () -> aggregate(dates, rain));
+	}
+
+	long aggregate(LocalDate[] dates, double[] values)
+	{
+		BucketAggregator agg = new BucketAggregator();
+		for (int i = 0; i < dates.length; i++)
+			agg.add(dates[i], values[i]);
+		return dates.length;
+	}
+
+	void measure(String name, Stage stage) throws Exception
+	{
+		for (int i = 0; i < warmup; i++)
+			stage.run();
+		double[] rates = new double[iterations];
+		long records = 0;
+		long nanos = 0;
+		long allocated = 0;
+		long thread = Thread.currentThread().getId();
+		for (int i = 0; i < iterations; i++)
+		{
+			long a0 = threads.getThreadAllocatedBytes(thread);
+			long t0 = System.nanoTime();
+			long n = stage.run();
+			long t = System.nanoTime() - t0;
+			allocated += threads.getThreadAllocatedBytes(thread) - a0;
+			nanos += t;
+			records += n;
+			rates[i] = n * 1e9 / t;
+		}
+		Arrays.sort(rates);
+		double seconds = nanos / 1e9;
+		System.out.println(String.format("%-32s %14.0f %12.1f %12.1f", name, rates[iterations / 2],
+				allocated / seconds / (1 << 20), (double) allocated / Math.max(records, 1)));
+	}
+
+	static int[] ints(String list)
+	{
+		String[] tokens = list.split(",");
+		int[] out = new int[tokens.length];
+		for (int i = 0; i < tokens.length; i++)
+			out[i] = Integer.parseInt(tokens[i].trim());
+		return out;
+	}
+}
@@ -0,0 +1,243 @@
+package DataAnalysis;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+//
+// Checks that PeakDetector and RiseDetector find the same events as the
+// findPeaks and calculateRiseTimes loops they replaced, kept below as they
+// were apart from taking their settings as parameters. Runs on seeded
+// synthetic series, with some readings dropped to zero, below zero or NaN,
+// for several settings. The streamed form and chunked scans must agree too;
+// the chunks are small so their boundaries land inside rises, on peaks and
+// in runs of down readings. Exits with status 1 on the first difference.
+//
+// Usage: DetectorCheck [-seeds 6]
+//
+public class DetectorCheck
+{
+	static final int[] DOWNPOINTS = { 0, 3, 9 };
+	static final double[] MINRISES = { 50, 400 };
+	static final int[] STEPS = { 1, 15 };
+	static final int[] CHUNKS = { 7, 64, 1000 };
+
+	public static void main(String[] args)
+	{
+		int seeds = 6;
+		for (int i = 0; i + 1 < args.length; i += 2)
+			if (args[i].equals("-seeds"))
+				seeds = Integer.parseInt(args[i + 1]);
+		int checked = 0;
+		int peaks = 0;
+		int rises = 0;
+		for (int seed = 0; seed < seeds; seed++)
+		{
+			for (int step : STEPS)
+			{
+				// the old loop is quadratic, so a month or two of readings
+				WellSeries series = withGaps(new SyntheticData(seed).wellSeries(LocalDateTime.of(2021, 1, 1, 0, 0)
+						.plusDays(seed * 17), 1, step), seed, 30 * 1440 / step * (1 + seed % 2));
+				ArrayList<WellPointNew> points = series.toPoints();
+				for (int downPoints : DOWNPOINTS)
+				{
+					String label = "seed " + seed + ", " + step + " min, " + downPoints + " down points";
+					ArrayList<Peak> expected = baselineFindPeaks(points, downPoints);
+					PeakDetector detector = new PeakDetector(downPoints, 0);
+					comparePeaks(label, expected, detector.findPeaks(series));
+					for (int chunk : CHUNKS)
+						comparePeaks(label + ", chunks of " + chunk, expected,
+								ParallelDetection.run(detector, series, ForkJoinPool.commonPool(), chunk));
+					ArrayList<Peak> streamed = new ArrayList<Peak>();
+					PeakDetector.Tracker tracker = detector.tracker(streamed::add);
+					for (int i = 0; i < series.size(); i++)
+						tracker.depth(series.minute(i), series.compensatedDepth(i));
+					comparePeaks(label + ", streamed", expected, streamed);
+					checked++;
+					peaks += expected.size();
+				}
+				for (double minRise : MINRISES)
+				{
+					String label = "seed " + seed + ", " + step + " min, " + minRise + " cm rise";
+					ArrayList<Rise> expected = baselineRiseTimes(points, minRise);
+					RiseDetector detector = new RiseDetector(minRise);
+					compareRises(label, expected, detector.findRises(series));
+					for (int chunk : CHUNKS)
+						compareRises(label + ", chunks of " + chunk, expected,
+								ParallelDetection.run(detector, series, ForkJoinPool.commonPool(), chunk));
+					ArrayList<Rise> streamed = new ArrayList<Rise>();
+					RiseDetector.Tracker tracker = detector.tracker(streamed::add);
+					for (int i = 0; i < series.size(); i++)
+						tracker.depth(series.minute(i), series.compensatedDepth(i));
+					compareRises(label + ", streamed", expected, streamed);
+					checked++;
+					rises += expected.size();
+				}
+			}
+		}
+		System.out.println(checked + " series checked, " + peaks + " peaks and " + rises + " rises identical");
+	}
+
+	// The first readings of source, with about one in 50 set to 0, -1 or NaN
+	static WellSeries withGaps(WellSeries source, long seed, int readings)
+	{
+		Random random = new Random(seed);
+		WellSeries series = new WellSeries(readings);
+		for (int i = 0; i < Math.min(readings, source.size()); i++)
+		{
+			double depth = source.compensatedDepth(i);
+			int r = random.nextInt(150);
+			if (r < 3)
+				depth = r == 0 ? 0d : r == 1 ? -1d : Double.NaN;
+			series.add(source.minute(i), depth, source.originalDepth(i), source.waterTemp(i), source.airTemp(i));
+		}
+		return series;
+	}
+
+	static void comparePeaks(String label, ArrayList<Peak> expected, ArrayList<Peak> actual)
+	{
+		for (int i = 0; i < Math.max(expected.size(), actual.size()); i++)
+		{
+			Peak e = i < expected.size() ? expected.get(i) : null;
+			Peak a = i < actual.size() ? actual.get(i) : null;
+			if (e == null || a == null || !e.dateTime.equals(a.dateTime)
+					|| Double.doubleToLongBits(e.value) != Double.doubleToLongBits(a.value))
+			{
+				System.out.println(label + ": peak " + i + " differs, expected " + describe(e) + ", found "
+						+ describe(a) + " (" + expected.size() + " expected, " + actual.size() + " found)");
+				System.exit(1);
+			}
+		}
+	}
+
+	static String describe(Peak peak)
+	{
+		return peak == null ? "none" : peak.dateTime + " " + peak.value;
+	}
+
+	static void compareRises(String label, ArrayList<Rise> expected, ArrayList<Rise> actual)
+	{
+		for (int i = 0; i < Math.max(expected.size(), actual.size()); i++)
+		{
+			Rise e = i < expected.size() ? expected.get(i) : null;
+			Rise a = i < actual.size() ? actual.get(i) : null;
+			if (e == null || a == null || !e.date.equals(a.date) || e.minutes != a.minutes)
+			{
+				System.out.println(label + ": rise " + i + " differs, expected " + describe(e) + ", found "
+						+ describe(a) + " (" + expected.size() + " expected, " + actual.size() + " found)");
+				System.exit(1);
+			}
+		}
+	}
+
+	static String describe(Rise rise)
+	{
+		return rise == null ? "none" : rise.date + " " + rise.minutes + " min";
+	}
+
+	// findPeaks and calcDiff from DataAnalysisMain before PeakDetector
+	static ArrayList<Peak> baselineFindPeaks(ArrayList<WellPointNew> pointsToProcess, int DOWNPOINTS)
+	{
+		ArrayList<Peak> peaksOut = new ArrayList<Peak>();
+		WellPointNew lastPeak = null;
+		int upPoints = 0;
+		int downPoints = 0;
+		// Go through each wellpoint looking for upslope.
+		for (WellPointNew wp : pointsToProcess)
+		{
+			if (wp.compensatedDepth <= 0d)
+				continue;
+			int index = pointsToProcess.indexOf(wp) + 1;
+			if (index >= pointsToProcess.size())
+				break;
+			double diff = calcDiff(wp, pointsToProcess);
+			if (diff > 0d) // headed up
+			{
+				if (downPoints > 0)
+					downPoints = 0;
+				upPoints++;
+				continue;
+			}
+			else // headed down
+			{
+				if (upPoints > 0)
+				{
+					lastPeak = wp;
+					upPoints = 0;
+				}
+				downPoints++;
+				if (downPoints > DOWNPOINTS && lastPeak != null)
+				{
+					peaksOut.add(new Peak(lastPeak.dateTime, lastPeak.compensatedDepth));
+					downPoints = 0;
+				}
+			}
+		}
+		return peaksOut;
+	}
+
+	static double calcDiff(WellPointNew wp, ArrayList<WellPointNew> points)
+	{
+		double a = wp.compensatedDepth;
+		int index = points.indexOf(wp) + 1;
+		double b = points.get(index).compensatedDepth;
+		double diff = b - a;
+		return diff;
+	}
+
+	// calculateRiseTimes from DataAnalysisMain before RiseDetector, with the
+	// 400 cm it was written for as minRise
+	static ArrayList<Rise> baselineRiseTimes(ArrayList<WellPointNew> wellData, double minRise)
+	{
+		WellPointNew baseWellPoint = null;
+		WellPointNew previousWellPoint = null;
+		ArrayList<Rise> riseTimes = new ArrayList<Rise>();
+		Iterator<WellPointNew> it = wellData.iterator();
+		while (it.hasNext())
+		{
+			WellPointNew wpn = it.next();
+			if (wpn.compensatedDepth < 0d)
+				continue;
+			if (baseWellPoint == null)
+			{
+				baseWellPoint = wpn;
+				previousWellPoint = wpn;
+				continue;
+			}
+			// Continued rise in depth
+			if (wpn.compensatedDepth >= previousWellPoint.compensatedDepth)
+			{
+				double diff = wpn.compensatedDepth - baseWellPoint.compensatedDepth;
+				if (diff >= minRise)
+				{
+					long time = calculateMinutesDifference(baseWellPoint.dateTime, wpn.dateTime);
+					Rise rise = new Rise();
+					rise.date = baseWellPoint.dateTime;
+					rise.minutes = time;
+					riseTimes.add(rise);
+					baseWellPoint = wpn;
+				}
+				previousWellPoint = wpn;
+				continue;
+			}
+			// Rise in depth stops
+			else
+			{
+				baseWellPoint = wpn;
+				previousWellPoint = wpn;
+				continue;
+			}
+		}
+		return riseTimes;
+	}
+
+	static long calculateMinutesDifference(LocalDateTime lo, LocalDateTime hi)
+	{
+		Duration duration = Duration.between(lo, hi);
+		long seconds = duration.getSeconds();
+		return seconds / 60;
+	}
+}
@@ -0,0 +1,108 @@
+package DataAnalysis;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Random;
+
+//
+// Generates well, usage and rainfall series that look like the Kir-Nel data:
+// a well drawn down while the pump runs and recovering between runs, on a
+// seasonal baseline, with wet winters and summer peaks in usage.
+//
+public class SyntheticData
+{
+	Random random;
+
+	public SyntheticData(long seed)
+	{
+		random = new Random(seed);
+	}
+
+	// Readings every stepMinutes for the given number of years
+	public WellSeries wellSeries(LocalDateTime start, int years, int stepMinutes)
+	{
+		long first = WellSeries.toMinute(start);
+		long last = WellSeries.toMinute(start.plusYears(years));
+		WellSeries series = new WellSeries((int) ((last - first) / stepMinutes) + 16);
+		double recovered = 2500;
+		double depth = recovered;
+		boolean pumping = false;
+		long pumpUntil = 0;
+		for (long minute = first; minute < last; minute += stepMinutes)
+		{
+			double dayOfYear = (minute / 1440) % 365;
+			double season = Math.cos(2 * Math.PI * (dayOfYear - 30) / 365);
+			recovered = 2500 + 400 * season;
+			if (!pumping && random.nextInt(400 / stepMinutes + 1) == 0)
+			{
+				pumping = true;
+				pumpUntil = minute + 60 + random.nextInt(240);
+			}
+			if (pumping)
+			{
+				depth -= (4 + random.nextDouble() * 6) * stepMinutes;
+				if (minute >= pumpUntil || depth < 400)
+					pumping = false;
+			}
+			else
+				depth += (recovered - depth) * 0.004 * stepMinutes + random.nextGaussian() * 0.5;
+			double compensated = Math.round(depth * 100) / 100.0;
+			// the odd logger glitch
+			if (random.nextInt(5000) == 0)
+				compensated = -1.0;
+			double waterTemp = Math.round((8 + 1.5 * season + random.nextGaussian() * 0.05) * 1000) / 1000.0;
+			double hour = (minute % 1440) / 60.0;
+			double airTemp = Math.round((9 - 6 * season + 5 * Math.sin(2 * Math.PI * (hour - 9) / 24)) * 10) / 10.0;
+			if (random.nextInt(20) == 0)
+				airTemp = Double.NaN;
+			series.add(minute, compensated, Math.round((compensated + 1013.25) * 100) / 100.0, waterTemp, airTemp);
+		}
+		series.trim();
+		return series;
+	}
+
+	// Same layout as Output/WellReadings.data
+	public void writeWellReadings(WellSeries series, File file) throws IOException
+	{
+		DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+		try (BufferedWriter bw = new BufferedWriter(new FileWriter(file), 1 << 16))
+		{
+			bw.write("Date\tCompensated Depth\tOriginal Depth\tWater Temp\tAir Temp\n");
+			for (int i = 0; i < series.size(); i++)
+			{
+				bw.write(series.dateTime(i).format(formatter) + "\t" + series.compensatedDepth(i) + "\t"
+						+ series.originalDepth(i) + "\t" + series.waterTemp(i) + "\t" + series.airTemp(i) + "\n");
+			}
+		}
+	}
+
+	// Gallons per day, highest in summer
+	public double[] dailyUsage(LocalDate start, int days)
+	{
+		double[] out = new double[days];
+		for (int i = 0; i < days; i++)
+		{
+			double season = Math.cos(2 * Math.PI * (start.plusDays(i).getDayOfYear() - 200) / 365);
+			out[i] = Math.max(0, Math.round(450 + 250 * season + random.nextGaussian() * 80));
+		}
+		return out;
+	}
+
+	// Millimetres per day, wet winters and dry summers
+	public double[] dailyRainfall(LocalDate start, int days)
+	{
+		double[] out = new double[days];
+		for (int i = 0; i < days; i++)
+		{
+			double season = Math.cos(2 * Math.PI * (start.plusDays(i).getDayOfYear() - 15) / 365);
+			boolean wet = random.nextDouble() < 0.45 + 0.3 * season;
+			out[i] = wet ? Math.round(random.nextDouble() * (12 + 10 * season) * 10) / 10.0 : 0d;
+		}
+		return out;
+	}
+}
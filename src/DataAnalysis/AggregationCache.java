@@ -0,0 +1,97 @@
+package DataAnalysis;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+//
+// Small LRU cache of aggregation results. An entry is keyed by the series it
+// was computed from, compared by identity, the series' version stamp and the
+// kind of result. Whoever replaces or changes a series gives it a new stamp
+// from nextVersion(), so stale results are never found again and age out.
+//
+public class AggregationCache
+{
+	static AtomicLong versions = new AtomicLong();
+
+	int capacity;
+	LinkedHashMap<Key, Object> entries;
+
+	static class Key
+	{
+		Object series;
+		long version;
+		String kind;
+
+		Key(Object series, long version, String kind)
+		{
+			this.series = series;
+			this.version = version;
+			this.kind = kind;
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if (!(o instanceof Key))
+				return false;
+			Key k = (Key) o;
+			return series == k.series && version == k.version && kind.equals(k.kind);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return (System.identityHashCode(series) * 31 + Long.hashCode(version)) * 31 + kind.hashCode();
+		}
+	}
+
+	public AggregationCache(int capacity)
+	{
+		this.capacity = capacity;
+		entries = new LinkedHashMap<Key, Object>(capacity * 2, 0.75f, true)
+		{
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, Object> eldest)
+			{
+				return size() > AggregationCache.this.capacity;
+			}
+		};
+	}
+
+	public static long nextVersion()
+	{
+		return versions.incrementAndGet();
+	}
+
+	// The cached result, or compute's result which is then cached. compute
+	// runs outside the lock, so two threads may both compute a missing entry.
+	@SuppressWarnings("unchecked")
+	public <T> T get(Object series, long version, String kind, Supplier<T> compute)
+	{
+		Key key = new Key(series, version, kind);
+		synchronized (entries)
+		{
+			Object value = entries.get(key);
+			if (value != null)
+				return (T) value;
+		}
+		T value = compute.get();
+		synchronized (entries)
+		{
+			entries.put(key, value);
+		}
+		return value;
+	}
+
+	public void clear()
+	{
+		synchronized (entries)
+		{
+			entries.clear();
+		}
+	}
+}
@@ -0,0 +1,72 @@
+package DataAnalysis;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.time.LocalDate;
+
+//
+// Running totals for one year, month or week of a dated series.
+// The mean is kept as a running mean, the same way the report helpers
+// have always computed it, so the rounded output does not change.
+//
+public class Bucket
+{
+	public int count;
+	public double sum;
+	public double mean;
+	public double min = Double.POSITIVE_INFINITY;
+	public double max = Double.NEGATIVE_INFINITY;
+	// sum truncated to a whole number after every add, as the weekly usage report does
+	public long wholeSum;
+	public LocalDate first;
+	public LocalDate last;
+
+	public void add(LocalDate date, double value)
+	{
+		++count;
+		sum += value;
+		wholeSum += value;
+		mean += (value - mean) / count;
+		if (value < min)
+			min = value;
+		if (value > max)
+			max = value;
+		if (first == null)
+			first = date;
+		last = date;
+	}
+
+	public boolean isEmpty()
+	{
+		return count == 0;
+	}
+
+	public void write(DataOutputStream out) throws IOException
+	{
+		out.writeInt(count);
+		out.writeDouble(sum);
+		out.writeDouble(mean);
+		out.writeDouble(min);
+		out.writeDouble(max);
+		out.writeLong(wholeSum);
+		out.writeLong(first == null ? Long.MIN_VALUE : first.toEpochDay());
+		out.writeLong(last == null ? Long.MIN_VALUE : last.toEpochDay());
+	}
+
+	public static Bucket read(DataInputStream in) throws IOException
+	{
+		Bucket b = new Bucket();
+		b.count = in.readInt();
+		b.sum = in.readDouble();
+		b.mean = in.readDouble();
+		b.min = in.readDouble();
+		b.max = in.readDouble();
+		b.wholeSum = in.readLong();
+		long first = in.readLong();
+		long last = in.readLong();
+		b.first = first == Long.MIN_VALUE ? null : LocalDate.ofEpochDay(first);
+		b.last = last == Long.MIN_VALUE ? null : LocalDate.ofEpochDay(last);
+		return b;
+	}
+}
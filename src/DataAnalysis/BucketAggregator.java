@@ -0,0 +1,117 @@
+package DataAnalysis;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.time.LocalDate;
+
+//
+// Fills year, month and week buckets for a dated series in one pass.
+// Add values in series order, then look buckets up by calendar key.
+// Calendar keys, including the week numbering, come from a CalendarKeys table.
+//
+public class BucketAggregator
+{
+	CalendarKeys calendar;
+	// keyed by year, in the order the years first appear
+	IntMap<Bucket> years = new IntMap<Bucket>();
+	// keyed by year * 12 + month - 1
+	IntMap<Bucket> months = new IntMap<Bucket>(64);
+	// keyed by year * 64 + week of year
+	IntMap<Bucket> weeks = new IntMap<Bucket>(256);
+
+	public BucketAggregator()
+	{
+		this(CalendarKeys.DEFAULT);
+	}
+
+	public BucketAggregator(CalendarKeys calendar)
+	{
+		this.calendar = calendar;
+	}
+
+	public void add(LocalDate date, double value)
+	{
+		int key = calendar.key(date);
+		bucket(years, CalendarKeys.year(key)).add(date, value);
+		bucket(months, CalendarKeys.monthIndex(key)).add(date, value);
+		bucket(weeks, CalendarKeys.weekIndex(key)).add(date, value);
+	}
+
+	public Bucket year(int year)
+	{
+		return lookup(years, year);
+	}
+
+	public Bucket month(int year, int month)
+	{
+		return lookup(months, year * 12 + month - 1);
+	}
+
+	public Bucket week(int year, int week)
+	{
+		return lookup(weeks, year * 64 + week);
+	}
+
+	public int[] yearsRepresented()
+	{
+		return years.toArray();
+	}
+
+	// The buckets in insertion order, so a copy read back adds on the same way
+	public void write(DataOutputStream out) throws IOException
+	{
+		write(out, years);
+		write(out, months);
+		write(out, weeks);
+	}
+
+	public static BucketAggregator read(DataInputStream in, CalendarKeys calendar) throws IOException
+	{
+		BucketAggregator agg = new BucketAggregator(calendar);
+		read(in, agg.years);
+		read(in, agg.months);
+		read(in, agg.weeks);
+		return agg;
+	}
+
+	private static void write(DataOutputStream out, IntMap<Bucket> map) throws IOException
+	{
+		out.writeInt(map.size());
+		for (int i = 0; i < map.size(); i++)
+		{
+			out.writeInt(map.key(i));
+			map.value(i).write(out);
+		}
+	}
+
+	private static void read(DataInputStream in, IntMap<Bucket> map) throws IOException
+	{
+		int size = in.readInt();
+		for (int i = 0; i < size; i++)
+		{
+			int key = in.readInt();
+			map.put(key, Bucket.read(in));
+		}
+	}
+
+	private Bucket bucket(IntMap<Bucket> map, int key)
+	{
+		Bucket bucket = map.get(key);
+		if (bucket == null)
+		{
+			bucket = new Bucket();
+			map.put(key, bucket);
+		}
+		return bucket;
+	}
+
+	// Missing buckets come back empty so callers see zero totals
+	private Bucket lookup(IntMap<Bucket> map, int key)
+	{
+		Bucket bucket = map.get(key);
+		if (bucket == null)
+			return new Bucket();
+		return bucket;
+	}
+}
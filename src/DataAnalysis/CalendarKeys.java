@@ -0,0 +1,136 @@
+package DataAnalysis;
+
+import java.time.LocalDate;
+import java.time.MonthDay;
+import java.time.temporal.TemporalField;
+import java.time.temporal.WeekFields;
+
+//
+// Calendar keys for each epoch day, packed into an int and looked up from a
+// table so bucketing never goes through the java.time field machinery.
+// The week numbering is fixed when the table is made rather than taken from
+// the machine's locale.
+//
+// Packed key: bits 0-5 week of year, 6-9 month, 10-24 year,
+// bit 25 set when the day falls before the rain season start in its year.
+//
+public class CalendarKeys
+{
+	// week of year keys run from 0, the ISO days before week 1, to 54, the
+	// last days of a leap year starting on a Saturday in Sunday weeks
+	public static final int WEEKS = 55;
+
+	// Sunday weeks, week 1 holding January 1st: what the weekly reports
+	// have always used on the en_CA/en_US machines they are run on
+	public static final CalendarKeys DEFAULT = new CalendarKeys(WeekFields.SUNDAY_START, MonthDay.of(9, 1));
+
+	final WeekFields weeks;
+	final TemporalField weekOfYear;
+	final MonthDay seasonStart;
+	volatile Table table = new Table(0, new int[0]);
+
+	static class Table
+	{
+		// epoch day of keys[0]
+		final long first;
+		final int[] keys;
+
+		Table(long first, int[] keys)
+		{
+			this.first = first;
+			this.keys = keys;
+		}
+	}
+
+	public CalendarKeys(WeekFields weeks, MonthDay seasonStart)
+	{
+		this.weeks = weeks;
+		this.weekOfYear = weeks.weekOfYear();
+		this.seasonStart = seasonStart;
+	}
+
+	// The settings the keys depend on
+	@Override
+	public String toString()
+	{
+		return weeks + " " + seasonStart;
+	}
+
+	public int key(LocalDate date)
+	{
+		return key(date.toEpochDay());
+	}
+
+	public int key(long epochDay)
+	{
+		Table t = table;
+		long i = epochDay - t.first;
+		if (i < 0 || i >= t.keys.length)
+		{
+			t = extend(epochDay);
+			i = epochDay - t.first;
+		}
+		return t.keys[(int) i];
+	}
+
+	public static int week(int key)
+	{
+		return key & 0x3F;
+	}
+
+	public static int month(int key)
+	{
+		return (key >>> 6) & 0x0F;
+	}
+
+	public static int year(int key)
+	{
+		return (key >>> 10) & 0x7FFF;
+	}
+
+	// Year the rain season containing the day started in
+	public static int rainYear(int key)
+	{
+		return year(key) - ((key >>> 25) & 1);
+	}
+
+	// year * 12 + month - 1
+	public static int monthIndex(int key)
+	{
+		return year(key) * 12 + month(key) - 1;
+	}
+
+	// year * 64 + week of year
+	public static int weekIndex(int key)
+	{
+		return year(key) * 64 + week(key);
+	}
+
+	// Grow the table by whole years to cover epochDay
+	private synchronized Table extend(long epochDay)
+	{
+		Table t = table;
+		if (epochDay >= t.first && epochDay - t.first < t.keys.length)
+			return t;
+		LocalDate date = LocalDate.ofEpochDay(epochDay);
+		long first = LocalDate.of(date.getYear(), 1, 1).toEpochDay();
+		long end = LocalDate.of(date.getYear() + 1, 1, 1).toEpochDay();
+		if (t.keys.length > 0)
+		{
+			first = Math.min(first, t.first);
+			end = Math.max(end, t.first + t.keys.length);
+		}
+		int[] keys = new int[(int) (end - first)];
+		for (int i = 0; i < keys.length; i++)
+			keys[i] = compute(LocalDate.ofEpochDay(first + i));
+		t = new Table(first, keys);
+		table = t;
+		return t;
+	}
+
+	private int compute(LocalDate date)
+	{
+		int beforeSeason = MonthDay.from(date).isBefore(seasonStart) ? 1 : 0;
+		return (beforeSeason << 25) | (date.getYear() << 10) | (date.getMonthValue() << 6) | date.get(weekOfYear);
+	}
+}
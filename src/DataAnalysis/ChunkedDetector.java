@@ -0,0 +1,17 @@
+package DataAnalysis;
+
+import java.util.ArrayList;
+
+//
+// A detector whose scan can be split into time chunks. After a sync point the
+// detector's state no longer depends on earlier readings, so scanning from
+// there gives the same events as a scan from the start of the series.
+//
+public interface ChunkedDetector<T>
+{
+	// First index at or after from that is a sync point, or series.size() if none
+	int syncPoint(WellSeries series, int from);
+
+	// Events emitted while processing indexes from..to-1, where from is 0 or a sync point
+	ArrayList<T> scan(WellSeries series, int from, int to);
+}
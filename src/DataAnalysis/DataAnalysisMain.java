@@ -7,11 +7,17 @@ import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.text.SimpleDateFormat;
 import java.time.DayOfWeek;
 import java.time.Duration;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.MonthDay;
 import java.time.Period;
 import java.time.format.DateTimeFormatter;
 import java.time.temporal.TemporalAdjusters;
@@ -21,9 +27,13 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Locale;
 import java.util.StringTokenizer;
-import java.util.Vector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import helloWorld.AtmosphericCompensation;
 import helloWorld.UsageData;
@@ -37,14 +47,21 @@ public class DataAnalysisMain
 	String currentWorkingDirectory;
 	String rootDir;
 	File configFile;
-	ArrayList<WellPointNew> wellData;
+	WellSeries wellData;
 	ArrayList<UsagePoint> usageData;
 	ArrayList<Rise> riseTimes;
 	ArrayList<RainPoint> rainPoints;
 	ArrayList<Peak> peaks;
+	// report buckets filled while streaming, in place of riseTimes and peaks
+	BucketAggregator riseBuckets;
+	BucketAggregator peakBuckets;
 	DateTimeFormatter dtFormatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
 	DateTimeFormatter dFormatter = DateTimeFormatter.ofPattern("yyyy-MM-dd");
 	String rainSeasonStart = "09-01";
+	// week numbering for the weekly reports, WeekFields.SUNDAY_START or WeekFields.ISO
+	WeekFields WEEKS = WeekFields.SUNDAY_START;
+	// calendar keys for bucketing, made from WEEKS and rainSeasonStart
+	CalendarKeys calendar;
 	boolean SUBSET = false;
 	boolean PREPROCESS = true;
 	LocalDateTime subsetStart = LocalDateTime.of(2023, 10, 21, 0, 0);
@@ -53,32 +70,256 @@ public class DataAnalysisMain
 	static int DOWNPOINTS = 9;
 	// minimum minutes between peaks. If less than this it's not a peak
 	static int PEAKMINSEPARATION = 120;
+	// minimum rise in depth (cm) to count as a rise event
+	static double MINRISE = 400;
+	// split rise and peak detection into time chunks run on the common ForkJoinPool
+	boolean PARALLELDETECTION = true;
+	// detect rises and peaks while reading, without holding the well data
+	boolean STREAMING = false;
+	// resume rise and peak detection from the .checkpoint files next to their
+	// reports, so only readings appended since the last run are scanned
+	boolean CHECKPOINTS = true;
+	// keep the downsampled depth levels next to WellReadings.data up to date
+	boolean PYRAMID = true;
+	WellPyramid pyramid;
+	// keep the well readings in WellReadings.columns mapped read-only rather
+	// than on the heap, for sites with decades of minute readings
+	boolean OFFHEAP = false;
+	// threads for running independent processing stages
+	int THREADS = Runtime.getRuntime().availableProcessors();
+	// threads writing report files
+	int OUTPUTTHREADS = Math.min(4, THREADS);
+	// report files are handed to this as render tasks
+	ReportOutput reports;
+	// stage timings, written to Output/RunReport.json at the end of a run
+	RunMetrics metrics = new RunMetrics();
+	// aggregations of the series below, keyed by their version stamps. A
+	// series gets a new stamp from AggregationCache.nextVersion() when replaced.
+	AggregationCache aggregations = new AggregationCache(32);
+	long rainVersion;
+	long usageVersion;
+	long riseVersion;
+	long peakVersion;
+	// drop peaks closer than PEAKMINSEPARATION to the previous one
+	boolean PEAKSEPARATION = false;
+	// sites analysed at once in a batch run
+	static int SITECONCURRENCY = 2;
+	// input files as last read, so watch mode can tell what changed
+	FileMark wellMark;
+	FileMark usageMark;
+	FileMark rainMark;
 
+	// With no arguments the site roots are the lines of DataAnalysis.cfg,
+	// otherwise the arguments, with -sites n setting how many run at once.
+	// -watch keeps a single site loaded and analyses new data as it lands.
+	// Several roots are run as a batch with a summary in SiteSummary.data.
 	public static void main(String[] args)
 	{
-		new DataAnalysisMain();
+		ArrayList<String> roots = new ArrayList<String>();
+		boolean watch = false;
+		for (int i = 0; i < args.length; i++)
+		{
+			if (args[i].equals("-sites") && i + 1 < args.length)
+				SITECONCURRENCY = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-watch"))
+				watch = true;
+			else
+				roots.add(args[i]);
+		}
+		String cwd = System.getProperty("user.dir");
+		if (roots.isEmpty() && !watch)
+			roots = configuredRoots(cwd + "/DataAnalysis.cfg");
+		if (watch)
+			new WatchMode(roots.isEmpty() ? null : roots.get(0)).run();
+		else if (roots.size() > 1)
+		{
+			SiteBatch batch = new SiteBatch(roots);
+			batch.run(SITECONCURRENCY);
+			batch.writeSummary(cwd + "/SiteSummary.data");
+		}
+		else if (args.length > 0)
+			new DataAnalysisMain(roots.get(0));
+		else
+			new DataAnalysisMain();
+	}
+
+	// Non-blank lines of the configuration file, empty if there is none
+	static ArrayList<String> configuredRoots(String fileName)
+	{
+		ArrayList<String> roots = new ArrayList<String>();
+		File file = new File(fileName);
+		if (!file.exists())
+			return roots;
+		try
+		{
+			for (String line : Files.readAllLines(file.toPath()))
+				if (!line.trim().isEmpty())
+					roots.add(line.trim());
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+		}
+		return roots;
 	}
 
 	public DataAnalysisMain()
 	{
+		this(null);
+	}
+
+	// Analyses the site at rootDir, or the first one in DataAnalysis.cfg if null
+	public DataAnalysisMain(String rootDir)
+	{
+		this.rootDir = rootDir;
 		setup();
-		processRainfall();
-		processUsage();
-		processRiseTimes();
-		processPeaks();
+		// rainfall, usage and well data share nothing, so only the
+		// dependencies below order them
+		StageScheduler scheduler = new StageScheduler();
+		if (STREAMING)
+			scheduler.add("wellStream", this::streamWellData);
+		else
+			scheduler.add("wellData", this::loadWellData);
+		scheduler.add("usageData", this::loadUsageData);
+		scheduler.add("rainfall", this::processRainfall);
+		scheduler.add("usage", this::processUsage, "usageData");
+		addWellReports(scheduler);
+		if (PYRAMID)
+			scheduler.add("pyramid", this::updatePyramid);
+		run(scheduler);
 		out("Data analysis processing completed");
 	}
 
+	// the rise time and peak reports cover the years in the usage data
+	private void addWellReports(StageScheduler scheduler)
+	{
+		if (STREAMING)
+			scheduler.add("wellReports", this::processWellStreamReports,
+					scheduler.present("wellStream", "usageData"));
+		else
+		{
+			scheduler.add("riseTimes", this::processRiseTimes, scheduler.present("wellData", "usageData"));
+			scheduler.add("peaks", this::processPeaks, scheduler.present("wellData", "usageData"));
+		}
+	}
+
+	private void run(StageScheduler scheduler)
+	{
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		reports = new ReportOutput(OUTPUTTHREADS, metrics);
+		try
+		{
+			scheduler.run(executor);
+		}
+		finally
+		{
+			executor.shutdown();
+			// the reports are complete once the last render task finishes
+			reports.finish();
+		}
+		writeRunReport(rootDir + "/Output/RunReport.json");
+	}
+
+	// Watch mode: preprocesses the raw folders if rawChanged, then runs again
+	// only the stages whose input files changed since they were read. The
+	// readings stay in memory and new ones appended to WellReadings.data are
+	// added to them. Returns false when no input had changed.
+	boolean refresh(boolean rawChanged)
+	{
+		metrics = new RunMetrics();
+		if (rawChanged && PREPROCESS)
+			try (RunMetrics.Stage m = metrics.start("preProcess"))
+			{
+				m.records(preProcess(rootDir));
+			}
+		boolean well = changed(wellMark, rootDir + "/Output/WellReadings.data");
+		boolean usage = changed(usageMark, rootDir + "/output/usage.data");
+		boolean rain = changed(rainMark, rootDir + "/Output/DailyPrecipitation.data");
+		if (!well && !usage && !rain)
+			return false;
+		StageScheduler scheduler = new StageScheduler();
+		if (well && STREAMING)
+			scheduler.add("wellStream", this::streamWellData);
+		else if (well)
+			scheduler.add("wellData", this::updateWellData);
+		if (usage)
+		{
+			scheduler.add("usageData", this::loadUsageData);
+			scheduler.add("usage", this::processUsage, "usageData");
+		}
+		if (rain)
+			scheduler.add("rainfall", this::processRainfall);
+		if (well || usage && STREAMING)
+			addWellReports(scheduler);
+		else if (usage)
+		{
+			// same events, so only the reports over the usage years change
+			scheduler.add("riseReports", () -> writeWeeklyMonthlyYearlyRiseTimes(rootDir, aggregateRiseTimes()),
+					"usageData");
+			scheduler.add("peakReports", this::WritePeakStatistics, "usageData");
+		}
+		if (well && PYRAMID)
+			scheduler.add("pyramid", this::updatePyramid);
+		run(scheduler);
+		out("Data analysis refreshed");
+		return true;
+	}
+
+	// A file is changed when it exists and differs from its mark
+	private static boolean changed(FileMark mark, String fileName)
+	{
+		return new File(fileName).exists() && (mark == null || !mark.unchanged());
+	}
+
+	// The file's current mark, null if it cannot be read
+	private static FileMark mark(String fileName)
+	{
+		try
+		{
+			return FileMark.of(new File(fileName));
+		}
+		catch (IOException e)
+		{
+			return null;
+		}
+	}
+
+	private void writeRunReport(String fileName)
+	{
+		try
+		{
+			out("Writing:" + fileName);
+			metrics.write(fileName);
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+		}
+	}
+
 	private void setup()
 	{
 		// wellData = new ArrayList<WellPointNew>();
 		currentWorkingDirectory = System.getProperty("user.dir");
 		out("Working Directory = " + currentWorkingDirectory);
-		configFile = getConfigFile(currentWorkingDirectory);
-		out("Configuration file = " + configFile.getAbsolutePath());
-		// Run preProcess only if the raw data has changed. It takes a while
+		if (rootDir == null)
+		{
+			configFile = getConfigFile(currentWorkingDirectory);
+			out("Configuration file = " + configFile.getAbsolutePath());
+		}
+		else
+			out("Rootdir=" + rootDir);
+		calendar = new CalendarKeys(WEEKS, MonthDay.parse("--" + rainSeasonStart));
+		// preProcess skips raw files it has already ingested
 		if (PREPROCESS)
-			preProcess(rootDir);
+			try (RunMetrics.Stage m = metrics.start("preProcess"))
+			{
+				m.records(preProcess(rootDir));
+			}
+	}
+
+	private void loadWellData()
+	{
 		if (SUBSET)
 		{
 			out("Well data subset from " + subsetStart + " to " + subsetEnd);
@@ -89,6 +330,11 @@ public class DataAnalysisMain
 			out("Full well data");
 			readWellData(rootDir + "/Output/WellReadings.data", null, null);
 		}
+	}
+
+	private void loadUsageData()
+	{
+		usageMark = mark(rootDir + "/output/usage.data");
 		readUsageData(rootDir + "/output/usage.data");
 	}
 
@@ -99,21 +345,26 @@ public class DataAnalysisMain
 		try
 		{
 			String fn = rootDir + "/Output/DailyPrecipitation.data";
+			rainMark = mark(fn);
 			out("Reading:" + fn);
-			BufferedReader br = new BufferedReader(new FileReader(fn));
-			while (br.ready())
+			try (RunMetrics.Stage m = metrics.start("read rainfall");
+					BufferedReader br = new BufferedReader(new FileReader(fn)))
 			{
-				RainPoint wp = new RainPoint();
-				String line = br.readLine();
-				String[] tokens = line.split("\t");
-				if (tokens.length == 1)
-					tokens = line.split(",");
-				wp.date = LocalDate.parse(tokens[0], formatter);
-				wp.rainfall = Double.parseDouble(tokens[1]);
-				rainPoints.add(wp);
+				while (br.ready())
+				{
+					RainPoint wp = new RainPoint();
+					String line = br.readLine();
+					String[] tokens = line.split("\t");
+					if (tokens.length == 1)
+						tokens = line.split(",");
+					wp.date = LocalDate.parse(tokens[0], formatter);
+					wp.rainfall = Double.parseDouble(tokens[1]);
+					rainPoints.add(wp);
+				}
+				rainVersion = AggregationCache.nextVersion();
+				m.records(rainPoints.size()).bytesRead(new File(fn).length());
 			}
 			writeWeeklyMonthlyYearlyRainfall(rootDir);
-			br.close();
 		}
 		catch (IOException e)
 		{
@@ -129,71 +380,435 @@ public class DataAnalysisMain
 
 	private void processRiseTimes()
 	{
-		riseTimes = calculateRiseTimes();
-		writeRiseTimes(rootDir + "/output/RiseTimes.data");
-		writeWeeklyMonthlyYearlyRiseTimes(rootDir);
+		String riseFile = rootDir + "/output/RiseTimes.data";
+		RiseDetector detector = new RiseDetector(MINRISE);
+		FileMark source = wellMark;
+		int readings = wellData.size();
+		DetectorCheckpoint checkpoint = loadCheckpoint(riseFile, riseSettings());
+		ArrayList<Rise> known = checkpoint != null ? knownRises(checkpoint, riseFile) : null;
+		if (known == null)
+		{
+			riseTimes = calculateRiseTimes();
+			riseVersion = AggregationCache.nextVersion();
+			BucketAggregator buckets = aggregateRiseTimes();
+			byte[] state = checkpoints() ? detector.endState(wellData).save() : null;
+			int events = riseTimes.size();
+			writeRiseTimes(riseFile,
+					() -> saveCheckpoint(riseFile, riseSettings(), source, readings, events, state, buckets));
+			writeWeeklyMonthlyYearlyRiseTimes(rootDir, buckets);
+			return;
+		}
+		// only the readings after the checkpoint are scanned
+		ArrayList<Rise> added = new ArrayList<Rise>();
+		RiseDetector.Tracker tracker = detector.tracker(added::add);
+		tracker.restore(checkpoint.state);
+		try (RunMetrics.Stage m = metrics.start("detect riseTimes"))
+		{
+			for (int i = checkpoint.readings; i < readings; i++)
+				tracker.depth(wellData.minute(i), wellData.compensatedDepth(i));
+			m.records(readings - checkpoint.readings);
+		}
+		BucketAggregator buckets = checkpoint.buckets;
+		for (Rise rise : added)
+			buckets.add(rise.date.toLocalDate(), rise.minutes);
+		known.addAll(added);
+		riseTimes = known;
+		riseVersion = AggregationCache.nextVersion();
+		aggregations.get(riseTimes, riseVersion, "riseTimes", () -> buckets);
+		out(riseTimes.size() + " rise events, " + added.size() + " new");
+		byte[] state = tracker.save();
+		int events = riseTimes.size();
+		reports.extend(riseFile, checkpoint.report.length, bw -> {
+			for (Rise rise : added)
+				writeRise(bw, rise);
+		}, () -> saveCheckpoint(riseFile, riseSettings(), source, readings, events, state, buckets));
+		writeWeeklyMonthlyYearlyRiseTimes(rootDir, buckets);
 	}
 
 	private void processPeaks()
 	{
-		peaks = findPeaks(wellData);
-		writeAllPeaks(peaks, rootDir);
+		String peakFile = rootDir + "/output/peaks.data";
+		PeakDetector detector = new PeakDetector(DOWNPOINTS, PEAKSEPARATION ? PEAKMINSEPARATION : 0);
+		FileMark source = wellMark;
+		int readings = wellData.size();
+		DetectorCheckpoint checkpoint = loadCheckpoint(peakFile, peakSettings());
+		ArrayList<Peak> known = checkpoint != null ? knownPeaks(checkpoint, peakFile) : null;
+		if (known == null)
+		{
+			peaks = findPeaks(wellData);
+			peakVersion = AggregationCache.nextVersion();
+			BucketAggregator buckets = aggregatePeaks(peaks);
+			Peak last = peaks.isEmpty() ? null : peaks.get(peaks.size() - 1);
+			byte[] state = checkpoints() ? detector.endState(wellData, last).save() : null;
+			int events = peaks.size();
+			writeAllPeaks(peaks, rootDir,
+					() -> saveCheckpoint(peakFile, peakSettings(), source, readings, events, state, buckets));
+		}
+		else
+		{
+			// only the readings after the checkpoint are scanned
+			ArrayList<Peak> added = new ArrayList<Peak>();
+			PeakDetector.Tracker tracker = detector.tracker(added::add);
+			tracker.restore(checkpoint.state);
+			try (RunMetrics.Stage m = metrics.start("detect peaks"))
+			{
+				for (int i = checkpoint.readings; i < readings; i++)
+					tracker.depth(wellData.minute(i), wellData.compensatedDepth(i));
+				m.records(readings - checkpoint.readings);
+			}
+			BucketAggregator buckets = checkpoint.buckets;
+			for (Peak peak : added)
+				buckets.add(peak.dateTime.toLocalDate(), peak.value);
+			known.addAll(added);
+			peaks = known;
+			peakVersion = AggregationCache.nextVersion();
+			aggregations.get(peaks, peakVersion, "peaks", () -> buckets);
+			out("FindPeaks " + peaks.size() + " peaks found, " + added.size() + " new");
+			byte[] state = tracker.save();
+			int events = peaks.size();
+			reports.extend(peakFile, checkpoint.report.length, bw -> {
+				for (Peak peak : added)
+					writePeak(bw, peak);
+			}, () -> saveCheckpoint(peakFile, peakSettings(), source, readings, events, state, buckets));
+		}
 		WritePeakStatistics();
 	}
-	// Establish working directories, read in usage and well data
+
+	// checkpoints cover the full readings only
+	private boolean checkpoints()
+	{
+		return CHECKPOINTS && !SUBSET;
+	}
+
+	private String riseSettings()
+	{
+		return "rise " + MINRISE + " " + calendar;
+	}
+
+	private String peakSettings()
+	{
+		return "peak " + DOWNPOINTS + " " + (PEAKSEPARATION ? PEAKMINSEPARATION : 0) + " " + calendar;
+	}
+
+	// The checkpoint of the report, or null if there is none that can be used
+	private DetectorCheckpoint loadCheckpoint(String reportFile, String settings)
+	{
+		if (!checkpoints())
+			return null;
+		File source = new File(rootDir + "/Output/WellReadings.data");
+		return DetectorCheckpoint.load(DetectorCheckpoint.fileFor(reportFile), settings, source, new File(reportFile),
+				calendar);
+	}
+
+	// Records where detection stopped, once the report it extends is complete.
+	// source is the readings file as read, holding readings readings.
+	private void saveCheckpoint(String reportFile, String settings, FileMark source, int readings, int events,
+			byte[] state, BucketAggregator buckets)
+	{
+		if (!checkpoints() || source == null)
+			return;
+		try
+		{
+			FileMark report = FileMark.of(new File(reportFile));
+			new DetectorCheckpoint(settings, source, readings, report, events, state, buckets)
+					.save(DetectorCheckpoint.fileFor(reportFile));
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+		}
+	}
+
+	// The rises up to the checkpoint, kept from the last run in watch mode or
+	// read back from the report. Null if they do not match the checkpoint.
+	private ArrayList<Rise> knownRises(DetectorCheckpoint checkpoint, String riseFile)
+	{
+		if (checkpoint.readings > wellData.size())
+			return null;
+		if (riseTimes != null && riseTimes.size() == checkpoint.events)
+			return new ArrayList<Rise>(riseTimes);
+		ArrayList<Rise> rises = new ArrayList<Rise>();
+		for (String[] fields : reportLines(riseFile, checkpoint.report.length))
+		{
+			Rise rise = new Rise();
+			rise.date = LocalDateTime.parse(fields[0], dtFormatter);
+			rise.minutes = Double.parseDouble(fields[1]);
+			rises.add(rise);
+		}
+		return rises.size() == checkpoint.events ? rises : null;
+	}
+
+	private ArrayList<Peak> knownPeaks(DetectorCheckpoint checkpoint, String peakFile)
+	{
+		if (checkpoint.readings > wellData.size())
+			return null;
+		if (peaks != null && peaks.size() == checkpoint.events)
+			return new ArrayList<Peak>(peaks);
+		ArrayList<Peak> known = new ArrayList<Peak>();
+		for (String[] fields : reportLines(peakFile, checkpoint.report.length))
+			known.add(new Peak(LocalDateTime.parse(fields[0], dtFormatter), Double.parseDouble(fields[1])));
+		return known.size() == checkpoint.events ? known : null;
+	}
+
+	// Tab separated fields of the lines in the first length bytes of a report
+	private ArrayList<String[]> reportLines(String fileName, long length)
+	{
+		ArrayList<String[]> lines = new ArrayList<String[]>();
+		try (RandomAccessFile raf = new RandomAccessFile(fileName, "r"))
+		{
+			byte[] bytes = new byte[(int) length];
+			raf.readFully(bytes);
+			for (String line : new String(bytes, StandardCharsets.US_ASCII).split("\n"))
+				if (!line.isEmpty())
+					lines.add(line.split("\t"));
+		}
+		catch (IOException | RuntimeException e)
+		{
+			e.printStackTrace();
+		}
+		return lines;
+	}
+
+	// Rise times and peaks straight from the readings file. Only the detector
+	// state and the report buckets are kept, not the readings or the events.
+	// With checkpoints for both detectors only the bytes after them are read.
+	private void streamWellData()
+	{
+		String fileName = SUBSET ? rootDir + "/output/wellReadings.data" : rootDir + "/Output/WellReadings.data";
+		String riseFile = rootDir + "/output/RiseTimes.data";
+		String peakFile = rootDir + "/output/peaks.data";
+		DetectorCheckpoint riseCheckpoint = loadCheckpoint(riseFile, riseSettings());
+		DetectorCheckpoint peakCheckpoint = loadCheckpoint(peakFile, peakSettings());
+		boolean resume = riseCheckpoint != null && peakCheckpoint != null
+				&& riseCheckpoint.source.length == peakCheckpoint.source.length
+				&& riseCheckpoint.readings == peakCheckpoint.readings;
+		riseBuckets = resume ? riseCheckpoint.buckets : new BucketAggregator(calendar);
+		peakBuckets = resume ? peakCheckpoint.buckets : new BucketAggregator(calendar);
+		// rises, peaks and readings so far
+		int[] counts = new int[3];
+		if (resume)
+		{
+			counts[0] = riseCheckpoint.events;
+			counts[1] = peakCheckpoint.events;
+			counts[2] = riseCheckpoint.readings;
+		}
+		try (RunMetrics.Stage m = metrics.start("stream wellData"))
+		{
+			FileMark source = mark(fileName);
+			wellMark = source;
+			long from = resume ? riseCheckpoint.source.length : 0;
+			out("Streaming:" + fileName + (resume ? " from byte " + from : ""));
+			ReportWriter riseWriter;
+			ReportWriter peakWriter;
+			if (resume)
+			{
+				riseWriter = ReportWriter.extend(riseFile, riseCheckpoint.report.length, ReportWriter.BUFFER);
+				peakWriter = ReportWriter.extend(peakFile, peakCheckpoint.report.length, ReportWriter.BUFFER);
+				out("Extending:" + riseFile);
+				out("Extending:" + peakFile);
+			}
+			else
+			{
+				riseWriter = new ReportWriter(riseFile);
+				peakWriter = new ReportWriter(peakFile);
+				out("Writing:" + riseFile);
+				out("Writing:" + peakFile);
+			}
+			RiseDetector.Tracker rises = new RiseDetector(MINRISE).tracker(rise -> {
+				try
+				{
+					writeRise(riseWriter, rise);
+				}
+				catch (IOException e)
+				{
+					throw new UncheckedIOException(e);
+				}
+				riseBuckets.add(rise.date.toLocalDate(), rise.minutes);
+				counts[0]++;
+			});
+			PeakDetector detector = new PeakDetector(DOWNPOINTS, PEAKSEPARATION ? PEAKMINSEPARATION : 0);
+			PeakDetector.Tracker peakTracker = detector.tracker(peak -> {
+				try
+				{
+					writePeak(peakWriter, peak);
+				}
+				catch (IOException e)
+				{
+					throw new UncheckedIOException(e);
+				}
+				peakBuckets.add(peak.dateTime.toLocalDate(), peak.value);
+				counts[1]++;
+			});
+			ReadingSink sink = (minute, compensated, original, water, air) -> {
+				rises.depth(minute, compensated);
+				peakTracker.depth(minute, compensated);
+				counts[2]++;
+			};
+			if (resume)
+			{
+				rises.restore(riseCheckpoint.state);
+				peakTracker.restore(peakCheckpoint.state);
+				WellReadingsReader.streamFrom(fileName, from, sink);
+			}
+			else
+				WellReadingsReader.stream(fileName, SUBSET ? subsetStart : null, SUBSET ? subsetEnd : null, sink);
+			riseWriter.close();
+			peakWriter.close();
+			saveCheckpoint(riseFile, riseSettings(), source, counts[2], counts[0], rises.save(), riseBuckets);
+			saveCheckpoint(peakFile, peakSettings(), source, counts[2], counts[1], peakTracker.save(), peakBuckets);
+			m.bytesRead(new File(fileName).length() - from).records(counts[0] + counts[1]);
+			m.bytesWritten(riseWriter.size() + peakWriter.size());
+		}
+		catch (IOException | UncheckedIOException e)
+		{
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		}
+		out(counts[0] + " rise events");
+		out("FindPeaks " + counts[1] + " peaks found");
+	}
+
+	private void processWellStreamReports()
+	{
+		writeWeeklyMonthlyYearlyRiseTimes(rootDir, riseBuckets);
+		writePeakStatistics(peakBuckets);
+	}
 
 	public void WritePeakStatistics()
 	{
-		double avg = getAveragePeakByYear(2021, peaks);
+		writePeakStatistics(aggregatePeaks(peaks));
+	}
+
+	private void writePeakStatistics(BucketAggregator peakBuckets)
+	{
+		double avg = peakBuckets.year(2021).mean;
 		out("Average peak 2021=" + fmt(avg));
-		avg = getAveragePeakByYear(2022, peaks);
+		avg = peakBuckets.year(2022).mean;
 		out("Average peak 2022=" + fmt(avg));
-		avg = getAveragePeakByYear(2023, peaks);
+		avg = peakBuckets.year(2023).mean;
 		out("Average peak 2023=" + fmt(avg));
-		writeWeeklyMonthlyYearlyPeakAverages(rootDir, peaks);
+		writeWeeklyMonthlyYearlyPeakAverages(rootDir, peakBuckets);
 	}
 
+	// Uses the binary cache next to the text file when it is current,
+	// otherwise parses the text and rewrites the cache. With OFFHEAP the
+	// mapped column file is used instead, made from those when it is stale.
 	private void readWellData(String fileName, LocalDateTime start, LocalDateTime end)
 	{
-		out("Reading:" + fileName);
-		wellData = new ArrayList<WellPointNew>();
-		try
+		wellData = new WellSeries();
+		File source = new File(fileName);
+		File cacheFile = WellSeriesCache.cacheFileFor(fileName);
+		File columnsFile = MappedWellSeries.fileFor(fileName);
+		try (RunMetrics.Stage m = metrics.start("read wellData"))
 		{
-			final String delims = "\t";
-			BufferedReader br = new BufferedReader(new FileReader(fileName));
-			String line;
-			br.readLine(); // skip header
-			int count = 0;
-			while (br.ready())
+			wellMark = mark(fileName);
+			WellSeries series = OFFHEAP ? MappedWellSeries.load(columnsFile, source) : null;
+			if (series != null)
+				out("Mapping:" + columnsFile);
+			else if ((series = WellSeriesCache.load(cacheFile, source)) != null)
 			{
-				WellPointNew wp = new WellPointNew();
-				line = br.readLine();
-				String[] tokens = line.split(delims);
-				DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
-				wp.dateTime = LocalDateTime.parse(tokens[0], formatter);
-				if (start != null)
+				out("Reading:" + cacheFile);
+				m.bytesRead(cacheFile.length());
+			}
+			else
+			{
+				out("Reading:" + fileName);
+				series = WellReadingsReader.read(fileName, null, null);
+				m.bytesRead(source.length());
+				out("Writing:" + cacheFile);
+				try
 				{
-					if (wp.dateTime.isBefore(start) || wp.dateTime.isAfter(end))
-						continue;
+					WellSeriesCache.write(series, cacheFile, source);
+					m.bytesWritten(cacheFile.length());
+				}
+				catch (IOException e)
+				{
+					// the readings are parsed, the cache is only for the next run
+					out("Cache not written:" + e);
 				}
-				wp.compensatedDepth = Double.parseDouble(tokens[1]);
-				wp.originalDepth = Double.parseDouble(tokens[2]);
-				wp.waterTemp = Double.parseDouble(tokens[3]);
-				if (isNumeric(tokens[4]))
-					wp.airTemp = Double.parseDouble(tokens[4]);
-				else
-					wp.airTemp = Double.NaN;
-				wellData.add(wp);
-				count++;
 			}
-			out(count + " well points read");
-			br.close();
+			if (OFFHEAP && !(series instanceof MappedWellSeries))
+			{
+				out("Writing:" + columnsFile);
+				try
+				{
+					MappedWellSeries.write(series, columnsFile, source);
+					m.bytesWritten(columnsFile.length());
+					MappedWellSeries mapped = MappedWellSeries.load(columnsFile, source);
+					if (mapped != null)
+						series = mapped;
+				}
+				catch (IOException e)
+				{
+					// Windows will not replace a file that is still mapped, as it
+					// is until the series read before is collected
+					out("Keeping well data on the heap:" + e);
+				}
+			}
+			if (start != null)
+				series = series.subset(start, end);
+			wellData = series;
+			m.records(series.size());
+			out(wellData.size() + " well points read");
 		}
-		catch (FileNotFoundException e)
+		catch (IOException e)
 		{
 			// TODO Auto-generated catch block
 			e.printStackTrace();
 		}
+	}
+
+	// Watch mode: adds the readings appended to WellReadings.data since it was
+	// read to the series in memory, or reads it all again if it was rewritten
+	private void updateWellData()
+	{
+		String fileName = rootDir + "/Output/WellReadings.data";
+		try
+		{
+			if (SUBSET || wellData == null || wellData.view || wellMark == null || !wellMark.endsLine()
+					|| !wellMark.onlyAppended())
+			{
+				loadWellData();
+				return;
+			}
+			try (RunMetrics.Stage m = metrics.start("update wellData"))
+			{
+				int before = wellData.size();
+				long from = wellMark.length;
+				wellMark = mark(fileName);
+				out("Reading:" + fileName + " from byte " + from);
+				WellReadingsReader.streamFrom(fileName, from, wellData);
+				m.records(wellData.size() - before).bytesRead(new File(fileName).length() - from);
+				out((wellData.size() - before) + " well points added");
+			}
+		}
+		catch (IOException e)
+		{
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		}
+	}
+
+	// Adds the readings appended to WellReadings.data since the pyramid was
+	// saved, or builds it from all of them
+	private void updatePyramid()
+	{
+		String fileName = rootDir + "/Output/WellReadings.data";
+		try (RunMetrics.Stage m = metrics.start("update pyramid"))
+		{
+			if (pyramid == null || !pyramid.source.onlyAppended())
+				pyramid = WellPyramid.load(fileName, WEEKS.getFirstDayOfWeek());
+			if (pyramid == null)
+				pyramid = new WellPyramid(WEEKS.getFirstDayOfWeek());
+			long from = pyramid.source != null ? pyramid.source.length : 0;
+			int before = pyramid.readings;
+			long end = WellReadingsReader.streamFrom(fileName, from, pyramid);
+			pyramid.source = FileMark.of(new File(fileName), end);
+			out("Writing:" + WellPyramid.fileFor(fileName, "*"));
+			pyramid.save(fileName);
+			out((pyramid.readings - before) + " readings added to the pyramid");
+			m.records(pyramid.readings - before).bytesRead(end - from);
+		}
 		catch (IOException e)
 		{
 			// TODO Auto-generated catch block
@@ -207,10 +822,10 @@ public class DataAnalysisMain
 		DateTimeFormatter dtf2 = DateTimeFormatter.ofPattern("yyyy-MM-dd");
 		int linesRead = 0;
 		usageData = new ArrayList<UsagePoint>();
-		try
+		out("Reading:" + file);
+		try (RunMetrics.Stage m = metrics.start("read usage");
+				BufferedReader br = new BufferedReader(new FileReader(file)))
 		{
-			BufferedReader br = new BufferedReader(new FileReader(file));
-			out("Reading:" + file);
 			while (br.ready())
 			{
 				UsagePoint up = new UsagePoint();
@@ -222,7 +837,8 @@ public class DataAnalysisMain
 				linesRead++;
 			}
 			out(linesRead + " usage lines read");
-			br.close();
+			usageVersion = AggregationCache.nextVersion();
+			m.records(linesRead).bytesRead(new File(file).length());
 		}
 		catch (IOException e)
 		{
@@ -231,273 +847,534 @@ public class DataAnalysisMain
 		}
 	}
 
-	// Do this only if the raw data changes
-	private void preProcess(String rootDir)
+	// Do this only if the raw data changes. Output/preprocess.manifest records the
+	// raw files already ingested; unchanged inputs are skipped and new logger
+	// downloads are compensated on their own and appended to WellReadings.data.
+	// Returns the well readings written.
+	private int preProcess(String rootDir)
 	{
-		String fn1 = rootDir + "/usage";
-		out("Reading directory:"+fn1);
-		UsageData usageData = new UsageData(fn1);
-		String fn2 = rootDir + "/output/usage.data";
-		out("Writing:"+fn2);
-		usageData.write(fn2);
-		WeatherData weatherData = new WeatherData(rootDir);
-		out("Weather data date range:"+weatherData.getHourlyDateRange());
-		weatherData.writeDaily(rootDir);
-		WellData wellData = new WellData(rootDir + "/WellData", null);
-		String fn3 = rootDir + "/WeatherData/WeatherDataErrors.txt";
-		BufferedWriter bw;
+		// raw files are hashed, read and compensated one task per file
+		ExecutorService io = RawIngest.newExecutor();
 		try
 		{
-			bw = new BufferedWriter(new FileWriter(fn3));
-			AtmosphericCompensation.calculate(wellData, weatherData, bw);
-			bw.close();
+			return preProcess(rootDir, io);
 		}
-		catch (IOException e1)
+		finally
 		{
-			// TODO Auto-generated catch block
-			e1.printStackTrace();
+			io.shutdown();
 		}
-		wellData.write(rootDir + "/Output/WellReadings.data");
-		out("Preprocessing of raw data completed");
-		out("Weather data errors are in:"+fn3);
 	}
 
-	private void writeWeeklyMonthlyYearlyRiseTimes(String rootDir)
+	private int preProcess(String rootDir, ExecutorService io)
 	{
-		int[] yearsRepresented = getUsageYearsRepresented();
-		ArrayList<WeekUsage> weeks = new ArrayList<WeekUsage>();
+		File manifestFile = new File(rootDir + "/Output/preprocess.manifest");
+		PreprocessManifest previous;
+		PreprocessManifest current;
+		try
+		{
+			previous = PreprocessManifest.load(manifestFile);
+			current = PreprocessManifest.scan(rootDir, previous, io);
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+			return 0;
+		}
+		String wellFile = rootDir + "/Output/WellReadings.data";
+		boolean usageChanged = current.changed(previous, "usage");
+		boolean weatherChanged = current.changed(previous, "WeatherData");
+		ArrayList<String> newWellFiles = current.added(previous, "WellData");
+		ArrayList<String> newWeatherFiles = current.added(previous, "WeatherData");
+		// compensation depends on the weather, so changed or removed weather
+		// files redo all well data; added ones only if they reach back into it
+		boolean wellRebuild = current.modifiedOrRemoved(previous, "WeatherData")
+				|| current.modifiedOrRemoved(previous, "WellData") || !new File(wellFile).exists();
+		if (!usageChanged && !weatherChanged && !wellRebuild && newWellFiles.isEmpty())
+		{
+			out("Raw data unchanged, preprocessing skipped");
+			return 0;
+		}
+		int count = 0;
 		try
 		{
-			String fn1 = rootDir + "/output/" + "YearlyRiseTimes.data";
-			String fn2 = rootDir + "/output/" + "MonthlyRiseTimes.data";
-			String fn3 = rootDir + "/output/" + "WeeklyRiseTimes.data";
-			BufferedWriter bw1 = new BufferedWriter(new FileWriter(fn1));
-			BufferedWriter bw2 = new BufferedWriter(new FileWriter(fn2));
-			BufferedWriter bw3 = new BufferedWriter(new FileWriter(fn3));
-			out("Writing:" + fn1);
-			out("Writing:" + fn2);
-			out("Writing:" + fn3);
-			for (int x : yearsRepresented)
+			// usage, weather and the well files load side by side
+			Future<?> usage = null;
+			if (usageChanged)
 			{
-				// int year = it.next();
-				int year = x;
-				// [0] = total, [1] = average
-				double averageAnnual = getYearAverageDailyRiseTime(year);
-				bw1.write(year + "\t" + fmt(averageAnnual) + "\n");
-				for (int month = 1; month < 13; month++)
+				String fn1 = rootDir + "/usage";
+				String fn2 = rootDir + "/output/usage.data";
+				out("Reading directory:" + fn1);
+				out("Writing:" + fn2);
+				usage = io.submit(() -> {
+					UsageData usageData = new UsageData(fn1);
+					usageData.write(fn2);
+				});
+			}
+			boolean daily = weatherChanged || !new File(rootDir + "/Output/DailyPrecipitation.data").exists();
+			Future<WeatherData> weather = null;
+			if (daily || wellRebuild || !newWellFiles.isEmpty())
+				weather = io.submit(() -> new WeatherData(rootDir));
+			String lastStamp = wellRebuild ? null : lastWellStamp(wellFile);
+			Future<String> addedFrom = null;
+			if (lastStamp != null && !newWeatherFiles.isEmpty())
+				addedFrom = io.submit(() -> RawIngest.firstWeatherDay(rootDir, newWeatherFiles));
+			if (daily)
+				RawIngest.get(weather).writeDaily(rootDir);
+			if (addedFrom != null)
+			{
+				// days are all the added files show, so one that starts on the
+				// last reading's day may cover hours before it
+				String firstDay = RawIngest.get(addedFrom);
+				if (firstDay != null && firstDay.compareTo(lastStamp.substring(0, 10)) <= 0)
 				{
-					double average = getMonthlyAverageDailyRiseTimes(month, year);
-					LocalDate date = LocalDate.of(year, month, 28);
-					bw2.write(date + "\t" + fmt(average) + "\n");
+					out("New weather data covers " + firstDay + " on, rebuilding " + wellFile);
+					wellRebuild = true;
+				}
+			}
+			if (wellRebuild || !newWellFiles.isEmpty())
+			{
+				String fn3 = rootDir + "/WeatherData/WeatherDataErrors.txt";
+				String newFile = rootDir + "/Output/WellReadingsNew.data";
+				out("Weather data date range:" + RawIngest.get(weather).getHourlyDateRange());
+				out("Weather data errors are in:" + fn3);
+				if (wellRebuild)
+				{
+					wellReadingsRebuilt(rootDir);
+					count = RawIngest.rebuildWellFile(rootDir, weather, wellFile, fn3);
+					out(count + " well readings from " + current.files("WellData").size() + " files");
 				}
-				for (int week = 1; week < 54; week++)
+				else
 				{
-					Rise rise = getWeekAverageDailyRiseTimes(week, year);
-					if (rise.date == null)
-						continue;
-					String dt = rise.date.format(dFormatter);
-					bw3.write(dt + "\t" + fmt(rise.minutes) + "\n");
+					out(newWellFiles.size() + " new well data files");
+					RawIngest.ingestWellFiles(rootDir, newWellFiles, weather, newFile, fn3, io);
+					count = appendWellReadings(newFile, wellFile);
+					new File(newFile).delete();
+					if (count >= 0)
+						out(count + " new well readings appended to " + wellFile);
+					else
+					{
+						// a backfill or an older overlapping download
+						out("New well data reaches back into " + wellFile + ", rebuilding it");
+						wellReadingsRebuilt(rootDir);
+						count = RawIngest.rebuildWellFile(rootDir, weather, wellFile, fn3);
+						out(count + " well readings from " + current.files("WellData").size() + " files");
+					}
 				}
 			}
-			bw1.close();
-			bw2.close();
-			bw3.close();
+			if (usage != null)
+				RawIngest.get(usage);
 		}
-		catch (IOException e)
+		catch (IOException | RuntimeException e1)
 		{
 			// TODO Auto-generated catch block
+			e1.printStackTrace();
+			return 0;
+		}
+		try
+		{
+			current.save(manifestFile);
+		}
+		catch (IOException e)
+		{
 			e.printStackTrace();
 		}
+		out("Preprocessing of raw data completed");
+		return count;
+	}
+
+	// WellReadings.data is being written again rather than appended to, so
+	// the detector checkpoints, the pyramid levels and the readings and
+	// pyramid kept in memory in watch mode no longer apply. A rebuilt file can start with the same bytes as the
+	// old one, which is all a saved FileMark can check.
+	private void wellReadingsRebuilt(String rootDir)
+	{
+		DetectorCheckpoint.fileFor(rootDir + "/output/RiseTimes.data").delete();
+		DetectorCheckpoint.fileFor(rootDir + "/output/peaks.data").delete();
+		for (String level : WellPyramid.NAMES)
+			WellPyramid.fileFor(rootDir + "/Output/WellReadings.data", level).delete();
+		wellMark = null;
+		pyramid = null;
+	}
+
+	// Append the readings in newFile to wellFile. Both start with a header
+	// line and then have a yyyy-MM-dd HH:mm stamp on each reading; newFile is
+	// in time order. Returns -1 without appending anything when newFile has a
+	// reading at or before the last one in wellFile, which then needs a rebuild.
+	private int appendWellReadings(String newFile, String wellFile) throws IOException
+	{
+		String lastStamp = lastWellStamp(wellFile);
+		try (BufferedReader br = new BufferedReader(new FileReader(newFile)))
+		{
+			br.readLine(); // skip header
+			String line;
+			do
+				line = br.readLine();
+			while (line != null && line.length() < 16);
+			if (line == null)
+				return 0;
+			if (lastStamp != null && line.substring(0, 16).compareTo(lastStamp) <= 0)
+				return -1;
+			int count = 0;
+			try (BufferedWriter bw = new BufferedWriter(new FileWriter(wellFile, true)))
+			{
+				for (; line != null; line = br.readLine())
+				{
+					if (line.length() < 16)
+						continue;
+					bw.write(line + "\n");
+					count++;
+				}
+			}
+			return count;
+		}
+	}
+
+	// Stamp of the last reading in a well readings file, null if it has none
+	private String lastWellStamp(String fileName) throws IOException
+	{
+		String line = lastLine(fileName);
+		boolean reading = line.length() >= 16 && Character.isDigit(line.charAt(0)) && line.charAt(4) == '-'
+				&& line.charAt(13) == ':';
+		return reading ? line.substring(0, 16) : null;
+	}
+
+	private String lastLine(String fileName) throws IOException
+	{
+		try (RandomAccessFile raf = new RandomAccessFile(fileName, "r"))
+		{
+			long end = raf.length();
+			int tail = (int) Math.min(end, 4096);
+			byte[] buf = new byte[tail];
+			raf.seek(end - tail);
+			raf.readFully(buf);
+			String text = new String(buf, StandardCharsets.US_ASCII).trim();
+			return text.substring(text.lastIndexOf('\n') + 1).trim();
+		}
+	}
+
+	private void writeWeeklyMonthlyYearlyRiseTimes(String rootDir, BucketAggregator rises)
+	{
+		int[] yearsRepresented = getUsageYearsRepresented();
+		reports.add(rootDir + "/output/" + "YearlyRiseTimes.data", bw -> {
+			for (int year : yearsRepresented)
+				bw.integer(year).tab().fixed2(rises.year(year).mean).newLine();
+		});
+		reports.add(rootDir + "/output/" + "MonthlyRiseTimes.data", bw -> {
+			for (int year : yearsRepresented)
+				for (int month = 1; month < 13; month++)
+				{
+					double average = rises.month(year, month).mean;
+					LocalDate date = LocalDate.of(year, month, 28);
+					bw.date(date).tab().fixed2(average).newLine();
+				}
+		});
+		reports.add(rootDir + "/output/" + "WeeklyRiseTimes.data", bw -> {
+			for (int year : yearsRepresented)
+				// week's average rise time plus a Monday for that week
+				for (int week = 0; week < CalendarKeys.WEEKS; week++)
+				{
+					Bucket rise = rises.week(year, week);
+					if (!(rise.mean > 0))
+						continue;
+					LocalDate monday = rise.last.with(TemporalAdjusters.next(DayOfWeek.MONDAY));
+					bw.date(monday).tab().fixed2(rise.mean).newLine();
+				}
+		});
 	}
 
 	private void writeWeeklyMonthlyYearlyRainfall(String rootDir)
 	{
 		int[] yearsRepresented = getRainfallYearsRepresented();
-		// ArrayList<WeekUsage> weeks = new ArrayList<WeekUsage>();
-		try
+		BucketAggregator rain = aggregateRainfall();
+		reports.add(rootDir + "/output/" + "YearlyRainfall.data", bw -> {
+			for (int year : yearsRepresented)
+				bw.integer(year).tab().fixed2(rain.year(year).mean).newLine();
+		});
+		reports.add(rootDir + "/output/" + "MonthlyRainfall.data", bw -> {
+			for (int year : yearsRepresented)
+				for (int month = 1; month < 13; month++)
+				{
+					double average = rain.month(year, month).sum;
+					LocalDate date = LocalDate.of(year, month, 28);
+					bw.date(date).tab().fixed2(average).newLine();
+				}
+		});
+		reports.add(rootDir + "/output/" + "WeeklyRainfall.data", bw -> {
+			for (int year : yearsRepresented)
+				// week's total rainfall plus a Friday for that week
+				for (int week = 0; week < CalendarKeys.WEEKS; week++)
+				{
+					Bucket wp = rain.week(year, week);
+					if (!(wp.sum > 0))
+						continue;
+					LocalDate friday = wp.last.with(TemporalAdjusters.next(DayOfWeek.FRIDAY));
+					bw.date(friday).tab().fixed2(wp.sum).newLine();
+				}
+		});
+		writeRainYears(rootDir, yearsRepresented, aggregateRainYears());
+	}
+
+	// Process Rain Year
+	// A rain year runs from rainSeasonStart through the day before it in the next year.
+	// We output only month and day so they can be plotted against each other in one
+	// chart, prefixed 00 for the first year and 01 for the second. Each pair
+	// of years with data makes a file, so across a gap the start of one
+	// season is followed by the end of a later one.
+	private void writeRainYears(String rootDir, int[] yearsRepresented, RainYears rainYears)
+	{
+		for (int i = 0; i < yearsRepresented.length - 1; i++)
 		{
-			String fn1 = rootDir + "/output/" + "YearlyRainfall.data";
-			String fn2 = rootDir + "/output/" + "MonthlyRainfall.data";
-			String fn3 = rootDir + "/output/" + "WeeklyRainfall.data";
-			BufferedWriter bw1 = new BufferedWriter(new FileWriter(fn1));
-			BufferedWriter bw2 = new BufferedWriter(new FileWriter(fn2));
-			BufferedWriter bw3 = new BufferedWriter(new FileWriter(fn3));
-			out("Writing:" + fn1);
-			out("Writing:" + fn2);
-			out("Writing:" + fn3);
-			for (int x : yearsRepresented)
+			int firstYear = yearsRepresented[i];
+			int secondYear = yearsRepresented[i + 1];
+			boolean consecutive = secondYear == firstYear + 1;
+			RainYears.Season head = rainYears.season(firstYear);
+			RainYears.Season tail = rainYears.season(secondYear - 1);
+			reports.add(rootDir + "/output/rainyear " + firstYear + "-" + secondYear + ".data", bw -> {
+				double cumulative = 0d;
+				for (RainYears.Season season : consecutive ? List.of(head) : List.of(head, tail))
+					for (int j = 0; j < season.count; j++)
+					{
+						// the first year's days from head, the second year's from tail
+						int yearOfSeason = rainYears.yearOfSeason(season.slots[j]);
+						if (!consecutive && (season == head) != (yearOfSeason == 0))
+							continue;
+						cumulative += season.rainfall[j];
+						MonthDay md = rainYears.monthDay(season.slots[j]);
+						bw.text(yearOfSeason == 0 ? "00-" : "01-");
+						bw.twoDigits(md.getMonthValue()).text("-").twoDigits(md.getDayOfMonth()).tab();
+						bw.fixed2(season.rainfall[j]).tab().fixed2(cumulative).newLine();
+					}
+			});
+		}
+		// season totals, and how far into a season each total was reached across the complete seasons
+		reports.add(rootDir + "/output/RainYearTotals.data", bw -> {
+			for (RainYears.Season season : rainYears.seasons())
+			{
+				bw.integer(season.startYear).text("-").integer(season.startYear + 1).tab();
+				bw.integer(season.count).tab().fixed2(season.total).newLine();
+			}
+		});
+		double[][] percentiles = rainYears.percentiles(10, 25, 50, 75, 90);
+		if (percentiles == null)
+			return;
+		reports.add(rootDir + "/output/RainYearPercentiles.data", bw -> {
+			for (int slot = 0; slot < percentiles.length; slot++)
+			{
+				MonthDay md = rainYears.monthDay(slot);
+				bw.text(rainYears.yearOfSeason(slot) == 0 ? "00-" : "01-");
+				bw.twoDigits(md.getMonthValue()).text("-").twoDigits(md.getDayOfMonth());
+				for (double p : percentiles[slot])
+					bw.tab().fixed2(p);
+				bw.newLine();
+			}
+		});
+	}
+
+	private void writeWeeklyMonthlyYearlyUsage(String Dir)
+	{
+		int[] yearsRepresented = getUsageYearsRepresented();
+		BucketAggregator usage = aggregateUsage();
+		reports.add(Dir + "YearlyUsage.data", bw -> {
+			for (int year : yearsRepresented)
+			{
+				Bucket yUsage = usage.year(year);
+				bw.integer(year).tab().decimal(yUsage.sum).tab().fixed2(yUsage.mean).newLine();
+			}
+		});
+		reports.add(Dir + "MonthlyUsage.data", bw -> {
+			for (int year : yearsRepresented)
+				for (int month = 1; month < 13; month++)
+				{
+					Bucket mUsage = usage.month(year, month);
+					LocalDate date = LocalDate.of(year, month, 28);
+					bw.date(date).tab().decimal(mUsage.sum).tab().fixed2(mUsage.mean).newLine();
+				}
+		});
+		// weeks are listed by date. Taken year by year they are already in date
+		// order unless the usage data is out of order, and only then sorted.
+		reports.add(Dir + "WeeklyUsage.data", bw -> {
+			if (weeksInDateOrder(usage, yearsRepresented))
+			{
+				for (int year : yearsRepresented)
+					for (int week = 0; week < CalendarKeys.WEEKS; week++)
+					{
+						Bucket wUsage = usage.week(year, week);
+						if (wUsage.isEmpty())
+							continue;
+						LocalDate monday = wUsage.last.with(TemporalAdjusters.next(DayOfWeek.MONDAY));
+						bw.date(monday).tab().fixed2(wUsage.wholeSum).tab().fixed2(wUsage.mean).newLine();
+					}
+				return;
+			}
+			ArrayList<WeekUsage> weeks = new ArrayList<WeekUsage>();
+			for (int year : yearsRepresented)
+				for (int week = 0; week < CalendarKeys.WEEKS; week++)
+				{
+					Bucket wUsage = usage.week(year, week);
+					if (wUsage.isEmpty())
+						continue;
+					WeekUsage wu = new WeekUsage();
+					wu.date = wUsage.last.with(TemporalAdjusters.next(DayOfWeek.MONDAY));
+					wu.usage = wUsage.wholeSum;
+					wu.avg = wUsage.mean;
+					weeks.add(wu);
+				}
+			writeWeeksUsage(weeks, bw);
+		});
+	}
+
+	private void writeWeeklyMonthlyYearlyPeakAverages(String rootDir, BucketAggregator peakBuckets)
+	{
+		int[] yearsRepresented = getUsageYearsRepresented();
+		reports.add(rootDir + "/output/YearlyPeaks.data", bw -> {
+			for (int year : yearsRepresented)
+				bw.integer(year).tab().fixed2(peakBuckets.year(year).mean).newLine();
+		});
+		// monthly averages are dated mid-month
+		reports.add(rootDir + "/output/MonthlyPeaks.data", bw -> {
+			for (int year : yearsRepresented)
+				for (int month = 1; month < 13; month++)
+				{
+					Bucket mPeaks = peakBuckets.month(year, month);
+					if (mPeaks.isEmpty())
+						continue;
+					bw.date(LocalDate.of(year, month, 15)).tab().fixed2(mPeaks.mean).newLine();
+				}
+		});
+		// weekly averages are dated the Monday after the week's first peak
+		reports.add(rootDir + "/output/WeeklyPeaks.data", bw -> {
+			for (int year : yearsRepresented)
+				for (int week = 0; week < CalendarKeys.WEEKS; week++)
+				{
+					Bucket wPeaks = peakBuckets.week(year, week);
+					if (wPeaks.isEmpty())
+						continue;
+					LocalDate monday = wPeaks.first.with(TemporalAdjusters.next(DayOfWeek.MONDAY));
+					bw.date(monday).tab().fixed2(wPeaks.mean).newLine();
+				}
+		});
+	}
+
+	// Year, month and week figures for a batch summary, empty where a stage failed
+	BucketAggregator riseAggregation()
+	{
+		if (STREAMING)
+			return riseBuckets != null ? riseBuckets : new BucketAggregator(calendar);
+		return riseTimes != null ? aggregateRiseTimes() : new BucketAggregator(calendar);
+	}
+
+	BucketAggregator peakAggregation()
+	{
+		if (STREAMING)
+			return peakBuckets != null ? peakBuckets : new BucketAggregator(calendar);
+		return peaks != null ? aggregatePeaks(peaks) : new BucketAggregator(calendar);
+	}
+
+	BucketAggregator usageAggregation()
+	{
+		return usageData != null ? aggregateUsage() : new BucketAggregator(calendar);
+	}
+
+	BucketAggregator rainfallAggregation()
+	{
+		return rainPoints != null ? aggregateRainfall() : new BucketAggregator(calendar);
+	}
+
+	private BucketAggregator aggregateRainfall()
+	{
+		return aggregations.get(rainPoints, rainVersion, "rainfall", () -> {
+			try (RunMetrics.Stage m = metrics.start("aggregate rainfall"))
+			{
+				BucketAggregator agg = new BucketAggregator(calendar);
+				for (RainPoint rp : rainPoints)
+					agg.add(rp.date, rp.rainfall);
+				m.records(rainPoints.size());
+				return agg;
+			}
+		});
+	}
+
+	private RainYears aggregateRainYears()
+	{
+		return aggregations.get(rainPoints, rainVersion, "rainYears", () -> {
+			try (RunMetrics.Stage m = metrics.start("aggregate rainYears"))
 			{
-				int year = x;
-				double averageAnnual = getYearAverageDailyRainfall(year);
-				bw1.write(year + "\t" + fmt(averageAnnual) + "\n");
-				for (int month = 1; month < 13; month++)
-				{
-					double average = getMonthlyTotalRainfall(month, year);
-					LocalDate date = LocalDate.of(year, month, 28);
-					bw2.write(date + "\t" + fmt(average) + "\n");
-				}
-				for (int week = 1; week < 54; week++)
-				{
-					RainPoint wp = getWeekTotalRainfall(week, year);
-					if (wp.date == null)
-						continue;
-					String dt = wp.date.format(dFormatter);
-					bw3.write(dt + "\t" + fmt(wp.rainfall) + "\n");
-				}
+				RainYears rainYears = new RainYears(calendar);
+				for (RainPoint rp : rainPoints)
+					rainYears.add(rp.date, rp.rainfall);
+				m.records(rainPoints.size());
+				return rainYears;
 			}
-			bw1.close();
-			bw2.close();
-			bw3.close();
-			// Process Rain Year
-			// A rain year runs from September through August of the next year.
-			// We output only month and day so they can be plotted against each other in one
-			// chart
-			for (int i = 0; i < yearsRepresented.length - 1; i++)
+		});
+	}
+
+	private BucketAggregator aggregateUsage()
+	{
+		return aggregations.get(usageData, usageVersion, "usage", () -> {
+			try (RunMetrics.Stage m = metrics.start("aggregate usage"))
 			{
-				String name1 = rootDir + "/output/rainyear " + yearsRepresented[i] + "-" + yearsRepresented[i + 1]
-						+ ".data";
-				out("Writing:" + name1);
-				BufferedWriter bw4 = new BufferedWriter(new FileWriter(name1));
-				Iterator<RainPoint> it = rainPoints.iterator();
-				double cumulativeRain = 0d;
-				while (it.hasNext())
-				{
-					RainPoint rp = it.next();
-					int month = rp.date.getMonthValue();
-					int year = rp.date.getYear();
-					int day = rp.date.getDayOfMonth();
-					String out = "";
-					if (year == yearsRepresented[i] && month >= 9)
-					{
-						cumulativeRain += rp.rainfall;
-						out = "00-" + String.format("%02d", month) + "-" + String.format("%02d", day) + "\t"
-								+ String.format("%02.2f", rp.rainfall) + "\t" + String.format("%02.2f", cumulativeRain);
-						// out("kept:" + out);
-						bw4.write(out + "\n");
-					}
-					else if (year == yearsRepresented[i + 1] && (month < 9))
-					{
-						cumulativeRain += rp.rainfall;
-						out = "01-" + String.format("%02d", month) + "-" + String.format("%02d", day) + "\t"
-								+ String.format("%02.2f", rp.rainfall) + "\t" + String.format("%02.2f", cumulativeRain);
-						// out("kept:" + out);
-						bw4.write(out + "\n");
-					}
-					// else
-					// out("skipped:" + rp.date + " " + rp.rainfall);
-				}
-				bw4.close();
+				BucketAggregator agg = new BucketAggregator(calendar);
+				for (UsagePoint up : usageData)
+					agg.add(up.date, up.gallons);
+				m.records(usageData.size());
+				return agg;
 			}
-		}
-		catch (IOException e)
-		{
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
+		});
 	}
 
-	private void writeWeeklyMonthlyYearlyUsage(String Dir)
+	private BucketAggregator aggregateRiseTimes()
 	{
-		int[] yearsRepresented = getUsageYearsRepresented();
-		ArrayList<WeekUsage> weeks = new ArrayList<WeekUsage>();
-		try
-		{
-			String fn1 = Dir + "YearlyUsage.data";
-			String fn2 = Dir + "MonthlyUsage.data";
-			String fn3 = Dir + "WeeklyUsage.data";
-			BufferedWriter bw1 = new BufferedWriter(new FileWriter(fn1));
-			BufferedWriter bw2 = new BufferedWriter(new FileWriter(fn2));
-			BufferedWriter bw3 = new BufferedWriter(new FileWriter(fn3));
-			out("Writing:" + fn1);
-			out("Writing:" + fn2);
-			out("Writing:" + fn3);
-			// BufferedWriter bw4 = new BufferedWriter(new FileWriter(rootDir +
-			// "DailyUsage.data"));
-			for (int x : yearsRepresented)
+		return aggregations.get(riseTimes, riseVersion, "riseTimes", () -> {
+			try (RunMetrics.Stage m = metrics.start("aggregate riseTimes"))
 			{
-				// int year = it.next();
-				int year = x;
-				// [0] = total, [1] = average
-				double[] usage = getYearTotalAndAverageDailyUsage(year);
-				bw1.write(year + "\t" + usage[0] + "\t" + fmt(usage[1]) + "\n");
-				for (int month = 1; month < 13; month++)
-				{
-					double[] mUsage = getMonthlyTotalAndAverageDailyUsage(month, year);
-					LocalDate date = LocalDate.of(year, month, 28);
-					// bw2.write(year+"-"+month + "\t" + mUsage + "\n");
-					bw2.write(date + "\t" + mUsage[0] + "\t" + fmt(mUsage[1]) + "\n");
-				}
-				for (int week = 1; week < 54; week++)
-				{
-					WeekUsage wu = getWeekTotalAndAverageDailyUsage(week, year);
-					if (wu.date != null)
-						weeks.add(wu);
-				}
+				BucketAggregator agg = new BucketAggregator(calendar);
+				for (Rise rise : riseTimes)
+					agg.add(rise.date.toLocalDate(), rise.minutes);
+				m.records(riseTimes.size());
+				return agg;
 			}
-			writeWeeksUsage(weeks, bw3);
-			bw1.close();
-			bw2.close();
-			bw3.close();
-			// out(Dir + "YearlyUsage.data written");
-			// out(Dir + "MonthlyUsage.data written");
-			// out(Dir + "WeeklyUsage.data written");
-		}
-		catch (IOException e)
+		});
+	}
+
+	// Lists other than the peaks field have no version stamp and could never
+	// be looked up again, so they are aggregated without going through the cache
+	private BucketAggregator aggregatePeaks(ArrayList<Peak> peaks)
+	{
+		if (peaks != this.peaks)
+			return bucketPeaks(peaks);
+		return aggregations.get(peaks, peakVersion, "peaks", () -> bucketPeaks(peaks));
+	}
+
+	private BucketAggregator bucketPeaks(ArrayList<Peak> peaks)
+	{
+		try (RunMetrics.Stage m = metrics.start("aggregate peaks"))
 		{
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			BucketAggregator agg = new BucketAggregator(calendar);
+			for (Peak peak : peaks)
+				agg.add(peak.dateTime.toLocalDate(), peak.value);
+			m.records(peaks.size());
+			return agg;
 		}
 	}
 
-	private void writeWeeklyMonthlyYearlyPeakAverages(String rootDir, ArrayList<Peak> peaks)
+	// True if the weeks' last days never go backwards
+	private boolean weeksInDateOrder(BucketAggregator usage, int[] yearsRepresented)
 	{
-		int[] yearsRepresented = getUsageYearsRepresented();
-		try
-		{
-			String fn1 = rootDir + "/output/YearlyPeaks.data";
-			String fn2 = rootDir + "/output/MonthlyPeaks.data";
-			String fn3 = rootDir + "/output/WeeklyPeaks.data";
-			BufferedWriter bw1 = new BufferedWriter(new FileWriter(fn1));
-			BufferedWriter bw2 = new BufferedWriter(new FileWriter(fn2));
-			BufferedWriter bw3 = new BufferedWriter(new FileWriter(fn3));
-			out("Writing:" + fn1);
-			out("Writing:" + fn2);
-			out("Writing:" + fn3);
-			for (int i = 0; i < yearsRepresented.length; i++)
+		LocalDate previous = null;
+		for (int year : yearsRepresented)
+			for (int week = 0; week < CalendarKeys.WEEKS; week++)
 			{
-				int year = yearsRepresented[i];
-				double peaksAverage = getYearPeaksAverage(year);
-				bw1.write(year + "\t" + fmt(peaksAverage) + "\n");
-				Peak[] averageMonthlyPeaks = getMonthPeakAverage(year);
-				for (int j = 0; j < averageMonthlyPeaks.length; j++)
-				{
-					if (averageMonthlyPeaks[j].dateTime == null)
-						continue;
-					String dt = averageMonthlyPeaks[j].dateTime.format(dFormatter);
-					bw2.write(dt + "\t" + fmt(averageMonthlyPeaks[j].value) + "\n");
-				}
-				Peak[] averageWeeklyPeak = getWeekPeakAverage(year);
-				for (int k = 0; k < averageWeeklyPeak.length; k++)
-				{
-					if (averageWeeklyPeak[k].dateTime == null)
-						continue;
-					String dt = averageWeeklyPeak[k].dateTime.format(dFormatter);
-					bw3.write(dt + "\t" + fmt(averageWeeklyPeak[k].value) + "\n");
-				}
+				Bucket wUsage = usage.week(year, week);
+				if (wUsage.isEmpty())
+					continue;
+				if (previous != null && wUsage.last.isBefore(previous))
+					return false;
+				previous = wUsage.last;
 			}
-			// writeWeeksUsage(weeks, bw3);
-			bw1.close();
-			bw2.close();
-			bw3.close();
-		}
-		catch (IOException e)
-		{
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
+		return true;
 	}
 
-	private void writeWeeksUsage(ArrayList<WeekUsage> weeks, BufferedWriter bw)
+	private void writeWeeksUsage(ArrayList<WeekUsage> weeks, ReportWriter bw) throws IOException
 	{
 		Collections.sort(weeks, new Comparator<WeekUsage>()
 		{
@@ -510,15 +1387,7 @@ public class DataAnalysisMain
 		while (it.hasNext())
 		{
 			WeekUsage wu = it.next();
-			try
-			{
-				bw.write(wu.date + "\t" + fmt(wu.usage) + "\t" + fmt(wu.avg) + "\n");
-			}
-			catch (IOException e)
-			{
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}
+			bw.date(wu.date).tab().fixed2(wu.usage).tab().fixed2(wu.avg).newLine();
 		}
 	}
 
@@ -537,7 +1406,7 @@ public class DataAnalysisMain
 
 	private void out(String str)
 	{
-		System.out.println(str);
+		StageScheduler.out(str);
 	}
 
 	private File getConfigFile(String directory)
@@ -587,168 +1456,57 @@ public class DataAnalysisMain
 
 	public Peak[] getMonthPeakAverage(int year)
 	{
-		Iterator<Peak> it = peaks.iterator();
+		BucketAggregator agg = aggregatePeaks(peaks);
 		Peak[] averagePeaks = new Peak[12];
-		int[] count = new int[12];
-		for (int i = 0; i < 12; i++)
-		{
-			averagePeaks[i] = new Peak();
-			count[i] = 1;
-		}
-		while (it.hasNext())
+		for (int month = 1; month < 13; month++)
 		{
-			Peak peak = it.next();
-			if (peak.dateTime.getYear() == year)
-			{
-				int month = peak.dateTime.getMonth().getValue();
-				averagePeaks[month - 1].value += (peak.value - averagePeaks[month - 1].value) / count[month - 1];
-				averagePeaks[month - 1].dateTime = LocalDateTime.of(year, month, 15, 0, 0);
-				++count[month - 1];
-			}
+			averagePeaks[month - 1] = new Peak();
+			Bucket b = agg.month(year, month);
+			if (b.isEmpty())
+				continue;
+			averagePeaks[month - 1].value = b.mean;
+			averagePeaks[month - 1].dateTime = LocalDateTime.of(year, month, 15, 0, 0);
 		}
 		return averagePeaks;
 	}
 
 	public double getMonthlyTotalRainfall(int month, int year)
 	{
-		Iterator<RainPoint> it = rainPoints.iterator();
-		double out = 0d;
-		// int t = 1;
-		// double total = 0d;
-		while (it.hasNext())
-		{
-			RainPoint wp = it.next();
-			if (wp.date.getYear() == year)
-			{
-				int mon = wp.date.getMonth().getValue();
-				if (wp.date.getMonthValue() == month)
-				{
-					out += wp.rainfall;
-					// out += (wp.rainfall - out) / t;
-					// ++t;
-				}
-			}
-		}
-		return out;
+		return aggregateRainfall().month(year, month).sum;
 	}
 
 	// Returns average rise times for the month
 	public double getMonthlyAverageDailyRiseTimes(int month, int year)
 	{
-		Iterator<Rise> it = riseTimes.iterator();
-		double out = 0d;
-		int t = 1;
-		// double total = 0d;
-		while (it.hasNext())
-		{
-			Rise rise = it.next();
-			if (rise.date.getYear() == year)
-			{
-				int mon = rise.date.getMonth().getValue();
-				if (rise.date.getMonthValue() == month)
-				{
-					out += (rise.minutes - out) / t;
-					++t;
-				}
-			}
-		}
-		return out;
+		return aggregateRiseTimes().month(year, month).mean;
 	}
 
 	public double[] getMonthlyTotalAndAverageDailyUsage(int month, int year)
 	{
-		Iterator<UsagePoint> it = usageData.iterator();
-		double[] out = new double[2];
-		out[0] = 0;
-		out[1] = 0;
-		int t = 1;
-		while (it.hasNext())
-		{
-			UsagePoint usage = it.next();
-			if (usage.date.getYear() == year)
-			{
-				int mon = usage.date.getMonth().getValue();
-				if (usage.date.getMonthValue() == month)
-				{
-					out[0] += usage.gallons;
-					out[1] += (usage.gallons - out[1]) / t;
-					++t;
-				}
-			}
-		}
-		return out;
+		Bucket b = aggregateUsage().month(year, month);
+		return new double[] { b.sum, b.mean };
 	}
 
 	public double getYearAverageDailyRiseTime(int year)
 	{
-		Iterator<Rise> it = riseTimes.iterator();
-		double out = 0d;
-		int t = 1;
-		while (it.hasNext())
-		{
-			Rise rise = it.next();
-			if (rise.date.getYear() == year)
-			{
-				out += (rise.minutes - out) / t;
-				++t;
-			}
-		}
-		return out;
+		return aggregateRiseTimes().year(year).mean;
 	}
 
 	public double getYearAverageDailyRainfall(int year)
 	{
-		Iterator<RainPoint> it = rainPoints.iterator();
-		double out = 0d;
-		int t = 1;
-		while (it.hasNext())
-		{
-			RainPoint wp = it.next();
-			if (wp.date.getYear() == year)
-			{
-				out += (wp.rainfall - out) / t;
-				++t;
-			}
-		}
-		return out;
+		return aggregateRainfall().year(year).mean;
 	}
 
 	// [0] = total for the year, [1] = average daily usage for the year
 	public double[] getYearTotalAndAverageDailyUsage(int year)
 	{
-		Iterator<UsagePoint> it = usageData.iterator();
-		double[] out = new double[2];
-		out[0] = 0d;
-		out[1] = 0d;
-		int t = 1;
-		while (it.hasNext())
-		{
-			UsagePoint up = it.next();
-			if (up.date.getYear() == year)
-			{
-				out[0] += up.gallons.doubleValue();
-				out[1] += (up.gallons.doubleValue() - out[1]) / t;
-				++t;
-			}
-		}
-		return out;
+		Bucket b = aggregateUsage().year(year);
+		return new double[] { b.sum, b.mean };
 	}
 
 	public double getYearPeaksAverage(int year)
 	{
-		Iterator<Peak> it = peaks.iterator();
-		double out = 0d;
-		int t = 1;
-		while (it.hasNext())
-		{
-			Peak peak = it.next();
-			if (peak.dateTime.getYear() == year)
-			{
-				out += (peak.value - out) / t;
-				++t;
-			}
-		}
-		return out;
+		return aggregatePeaks(peaks).year(year).mean;
 	}
 
 	// Returns week's average rise time plus a Monday for that week
@@ -759,13 +1517,11 @@ public class DataAnalysisMain
 		int t = 1;
 		Iterator<Rise> it = riseTimes.iterator();
 		// double total = 0d;
-		// TemporalField tf1 = WeekFields.of(Locale.getDefault()).weekOfWeekBasedYear();
-		TemporalField tf2 = WeekFields.of(Locale.getDefault()).weekOfYear();
 		while (it.hasNext())
 		{
 			Rise rise = it.next();
 			// riseOut.date = rise.date;
-			int weekOfYear = rise.date.get(tf2);
+			int weekOfYear = CalendarKeys.week(calendar.key(rise.date.toLocalDate()));
 			// int week = rise.date.get(tf1);
 			// int month = rise.date.getMonthValue();
 			if (weekIn == weekOfYear && rise.date.getYear() == yearIn)
@@ -788,83 +1544,41 @@ public class DataAnalysisMain
 
 	public RainPoint getWeekTotalRainfall(int weekIn, int yearIn)
 	{
+		Bucket b = aggregateRainfall().week(yearIn, weekIn);
 		RainPoint wpOut = new RainPoint();
-		wpOut.rainfall = 0d;
-		int t = 1;
-		Iterator<RainPoint> it = rainPoints.iterator();
-		// double total = 0d;
-		// TemporalField tf1 = WeekFields.of(Locale.getDefault()).weekOfWeekBasedYear();
-		TemporalField tf2 = WeekFields.of(Locale.getDefault()).weekOfYear();
-		while (it.hasNext())
-		{
-			RainPoint wp = it.next();
-			// riseOut.date = rise.date;
-			int weekOfYear = wp.date.get(tf2);
-			if (weekIn == weekOfYear && wp.date.getYear() == yearIn)
-			{
-				wpOut.date = wp.date;
-				wpOut.rainfall += wp.rainfall;
-				// wpOut.rainfall += (wp.rainfall - wpOut.rainfall) / t;
-				// ++t;
-			}
-		}
+		wpOut.rainfall = b.sum;
 		if (wpOut.rainfall > 0)
-		{
-			LocalDate friday;
-			friday = wpOut.date.with(TemporalAdjusters.next(DayOfWeek.FRIDAY));
-			wpOut.date = friday;
-		}
-		else
-			wpOut.date = null;
+			wpOut.date = b.last.with(TemporalAdjusters.next(DayOfWeek.FRIDAY));
 		return wpOut;
 	}
 
 	public WeekUsage getWeekTotalAndAverageDailyUsage(int week, int year)
 	{
+		Bucket b = aggregateUsage().week(year, week);
 		WeekUsage wu = new WeekUsage();
-		wu.usage = 0l;
-		int t = 1;
-		Iterator<UsagePoint> it = usageData.iterator();
-		// double total = 0d;
-		TemporalField tf = WeekFields.of(Locale.getDefault()).weekOfYear();
-		while (it.hasNext())
-		{
-			UsagePoint up = it.next();
-			int weekOfYear = up.date.get(tf);
-			if (week == weekOfYear && up.date.getYear() == year)
-			{
-				wu.usage += up.gallons;
-				wu.date = up.date;
-				wu.avg += (up.gallons - wu.avg) / t;
-				++t;
-			}
-		}
-		LocalDate monday;
-		if (wu.date != null)
-		{
-			monday = wu.date.with(TemporalAdjusters.next(DayOfWeek.MONDAY));
-			wu.date = monday;
-		}
+		wu.usage = b.wholeSum;
+		wu.avg = b.mean;
+		if (b.last != null)
+			wu.date = b.last.with(TemporalAdjusters.next(DayOfWeek.MONDAY));
 		return wu;
 	}
 
 	public Peak[] getWeekPeakAverage(int year)
 	{
-		Peak[] weekAverages = new Peak[54];
-		int[] counts = new int[54];
+		Peak[] weekAverages = new Peak[CalendarKeys.WEEKS];
+		int[] counts = new int[CalendarKeys.WEEKS];
 		for (int i = 0; i < counts.length; i++)
 		{
 			counts[i] = 1;
 			weekAverages[i] = new Peak();
 		}
-		TemporalField tf = WeekFields.of(Locale.getDefault()).weekOfYear();
 		Iterator<Peak> it = peaks.iterator();
 		while (it.hasNext())
 		{
 			Peak peak = it.next();
 			if (peak.dateTime.getYear() != year)
 				continue;
-			int weekOfYear = peak.dateTime.get(tf);
+			int weekOfYear = CalendarKeys.week(calendar.key(peak.dateTime.toLocalDate()));
 			// if (weekOfYear > 50)
 			// out("stop");
 			weekAverages[weekOfYear].value += (peak.value - weekAverages[weekOfYear].value) / counts[weekOfYear];
@@ -892,86 +1606,49 @@ public class DataAnalysisMain
 		int w4 = d2.get(tfx);
 	}
 
+	// Years in the order they first appear
 	public int[] getUsageYearsRepresented()
 	{
-		Vector<Integer> yrs = new Vector<Integer>();
-		Iterator<UsagePoint> it = usageData.iterator();
-		while (it.hasNext())
+		IntSet yrs = new IntSet();
+		int last = Integer.MIN_VALUE;
+		for (UsagePoint up : usageData)
 		{
-			UsagePoint up = it.next();
-			Integer yr = up.date.getYear();
-			if (!yrs.contains(yr))
+			int yr = up.date.getYear();
+			if (yr != last)
+			{
 				yrs.add(yr);
+				last = yr;
+			}
 		}
-		int[] yr = new int[yrs.size()];
-		for (int i = 0; i < yrs.size(); i++)
-			yr[i] = yrs.get(i);
-		return yr;
+		return yrs.toArray();
 	}
 
 	public int[] getRainfallYearsRepresented()
 	{
-		Vector<Integer> yrs = new Vector<Integer>();
-		Iterator<RainPoint> it = rainPoints.iterator();
-		while (it.hasNext())
+		IntSet yrs = new IntSet();
+		int last = Integer.MIN_VALUE;
+		for (RainPoint rp : rainPoints)
 		{
-			RainPoint up = it.next();
-			Integer yr = up.date.getYear();
-			if (!yrs.contains(yr))
+			int yr = rp.date.getYear();
+			if (yr != last)
+			{
 				yrs.add(yr);
+				last = yr;
+			}
 		}
-		int[] yr = new int[yrs.size()];
-		for (int i = 0; i < yrs.size(); i++)
-			yr[i] = yrs.get(i);
-		return yr;
+		return yrs.toArray();
 	}
 
 	private ArrayList<Rise> calculateRiseTimes()
 	{
-		WellPointNew baseWellPoint = null;
-		WellPointNew previousWellPoint = null;
-		riseTimes = new ArrayList<Rise>();
-		Iterator<WellPointNew> it = wellData.iterator();
-		while (it.hasNext())
+		RiseDetector detector = new RiseDetector(MINRISE);
+		try (RunMetrics.Stage m = metrics.start("detect riseTimes"))
 		{
-			WellPointNew wpn = it.next();
-			if (wpn.compensatedDepth < 0d)
-				continue;
-			if (baseWellPoint == null)
-			{
-				baseWellPoint = wpn;
-				previousWellPoint = wpn;
-				continue;
-			}
-			// Continued rise in depth
-			if (wpn.compensatedDepth >= previousWellPoint.compensatedDepth)
-			{
-				double diff = wpn.compensatedDepth - baseWellPoint.compensatedDepth;
-				if (diff >= 400)
-				{
-					long time = calculateMinutesDifference(baseWellPoint.dateTime, wpn.dateTime);
-					Rise rise = new Rise();
-					rise.date = baseWellPoint.dateTime;
-					rise.minutes = time;
-					riseTimes.add(rise);
-					// out(fmt(diff) + " cm over " + time + " minutes");
-					baseWellPoint = wpn;
-				}
-				// out ("Rise of "+(fmt(wpn.compensatedDepth -
-				// previousWellPoint.compensatedDepth)));
-				previousWellPoint = wpn;
-				continue;
-			}
-			// Rise in depth stops
+			if (PARALLELDETECTION)
+				riseTimes = detector.findRises(wellData, ForkJoinPool.commonPool());
 			else
-			{
-				long time = calculateMinutesDifference(previousWellPoint.dateTime, wpn.dateTime);
-				// out("Rise stopped, diff="+(wpn.compensatedDepth -
-				// baseWellPoint.compensatedDepth));
-				baseWellPoint = wpn;
-				previousWellPoint = wpn;
-				continue;
-			}
+				riseTimes = detector.findRises(wellData);
+			m.records(wellData.size());
 		}
 		out(riseTimes.size() + " rise events");
 		return riseTimes;
@@ -990,103 +1667,52 @@ public class DataAnalysisMain
 		return seconds / 60;
 	}
 
-	private void writeRiseTimes(String fileName)
+	private void writeRise(ReportWriter w, Rise rise) throws IOException
 	{
-		try
-		{
-			BufferedWriter bw = new BufferedWriter(new FileWriter(fileName));
-			out("Writing:" + fileName);
-			Iterator<Rise> it = riseTimes.iterator();
-			while (it.hasNext())
-			{
-				Rise rise = it.next();
-				String dt = rise.date.format(dtFormatter);
-				bw.write(dt + "\t" + rise.minutes + "\n");
-			}
-			bw.close();
-		}
-		catch (IOException e)
-		{
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
+		w.dateTime(rise.date).tab().decimal(rise.minutes).newLine();
 	}
 
-	private ArrayList<Peak> findPeaks(ArrayList<WellPointNew> pointsIn)
+	private void writePeak(ReportWriter w, Peak peak) throws IOException
 	{
-		ArrayList<Peak> peaksOut = new ArrayList<Peak>();
-		ArrayList<WellPointNew> pointsToProcess = null;
-		WellPointNew lastPeak = null;
-		int upPoints = 0;
-		int downPoints = 0;
+		w.dateTime(peak.dateTime).tab().decimal(peak.value).newLine();
+	}
+
+	private void writeRiseTimes(String fileName, Runnable done)
+	{
+		ArrayList<Rise> riseTimes = this.riseTimes;
+		reports.add(fileName, bw -> {
+			for (Rise rise : riseTimes)
+				writeRise(bw, rise);
+		}, done);
+	}
+
+	private ArrayList<Peak> findPeaks(WellSeries pointsIn)
+	{
+		WellSeries pointsToProcess = null;
 		if (pointsIn == null)
 			pointsToProcess = wellData;
 		else
 			pointsToProcess = pointsIn;
-		Iterator<WellPointNew> it = pointsToProcess.iterator();
-		// Go through each wellpoint looking for upslope.
-		for (WellPointNew wp : pointsToProcess)
+		PeakDetector detector = new PeakDetector(DOWNPOINTS, PEAKSEPARATION ? PEAKMINSEPARATION : 0);
+		ArrayList<Peak> peaksOut;
+		try (RunMetrics.Stage m = metrics.start("detect peaks"))
 		{
-			if (wp.compensatedDepth <= 0d)
-				continue;
-			int index = pointsToProcess.indexOf(wp) + 1;
-			if (index >= pointsToProcess.size())
-				break;
-			double d1 = wp.compensatedDepth;
-			double d2 = pointsToProcess.get(pointsToProcess.indexOf(wp) + 1).compensatedDepth;
-			double diff = calcDiff(wp, pointsToProcess);
-			if (diff == Double.NaN)
-				break;
-			if (diff > 0d) // headed up
-			{
-				if (downPoints > 0)
-					downPoints = 0;
-				upPoints++;
-				continue;
-			}
-			else // headed down
-			{
-				if (upPoints > 0)
-				{
-					lastPeak = wp;
-					upPoints = 0;
-				}
-				downPoints++;
-				if (downPoints > DOWNPOINTS && lastPeak != null)
-				{
-					peaksOut.add(new Peak(lastPeak.dateTime, lastPeak.compensatedDepth));
-					downPoints = 0;
-					// Duration duration = Duration.between(lastPeak.dateTime, wp.dateTime);
-					// long minutes = duration.toMinutes();
-					// out (minutes+" minutes separation");
-					// if (minutes > PEAKMINSEPARATION)
-					// {
-					// peaksOut.add(new Peak(lastPeak.dateTime, wp.compensatedDepth));
-					// lastPeak = null;
-					// downPoints = 0;
-					// }
-				}
-			}
+			if (PARALLELDETECTION)
+				peaksOut = detector.findPeaks(pointsToProcess, ForkJoinPool.commonPool());
+			else
+				peaksOut = detector.findPeaks(pointsToProcess);
+			m.records(pointsToProcess.size());
 		}
 		out("FindPeaks " + peaksOut.size() + " peaks found");
 		return peaksOut;
 	}
 
-	private double calcDiff(WellPointNew wp, ArrayList<WellPointNew> points)
-	{
-		double a = wp.compensatedDepth;
-		int index = points.indexOf(wp) + 1;
-		double b = points.get(index).compensatedDepth;
-		double diff = b - a;
-		return diff;
-	}
-
 	private ArrayList<Peak> xxxfindPeaks(ArrayList<WellPointNew> pointsIn)
 	{
 		ArrayList<Peak> peaksOut = new ArrayList<Peak>();
 		ArrayList<WellPointNew> pointsToProcess = null;
 		if (pointsIn == null)
-			pointsToProcess = wellData;
+			pointsToProcess = wellData.toPoints();
 		else
 			pointsToProcess = pointsIn;
 		Iterator<WellPointNew> it = pointsToProcess.iterator();
@@ -1154,27 +1780,12 @@ public class DataAnalysisMain
 		System.out.println("");
 	}
 
-	private void writeAllPeaks(ArrayList<Peak> peaksIn, String rootDir)
+	private void writeAllPeaks(ArrayList<Peak> peaksIn, String rootDir, Runnable done)
 	{
-		try
-		{
-			String fn1 = rootDir + "/output/peaks.data";
-			BufferedWriter bw = new BufferedWriter(new FileWriter(fn1));
-			out("Writing:" + fn1);
-			Iterator<Peak> it = peaksIn.iterator();
-			while (it.hasNext())
-			{
-				Peak peak = it.next();
-				String dt = peak.dateTime.format(dtFormatter);
-				bw.write(dt + "\t" + peak.value + "\n");
-			}
-			bw.close();
-		}
-		catch (IOException e)
-		{
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
+		reports.add(rootDir + "/output/peaks.data", bw -> {
+			for (Peak peak : peaksIn)
+				writePeak(bw, peak);
+		}, done);
 	}
 
 	//
@@ -1192,38 +1803,14 @@ public class DataAnalysisMain
 		return wpma;
 	}
 
-	private ArrayList<WellPointNew> subsetWellReadings(LocalDateTime start, LocalDateTime end)
+	private WellSeries subsetWellReadings(LocalDateTime start, LocalDateTime end)
 	{
-		ArrayList<WellPointNew> out = new ArrayList<WellPointNew>();
-		Iterator<WellPointNew> it = wellData.iterator();
-		while (it.hasNext())
-		{
-			WellPointNew wp = it.next();
-			if (wp.dateTime.isBefore(start))
-				continue;
-			if (wp.dateTime.isAfter(end))
-				continue;
-			out.add(wp);
-		}
-		return out;
+		return wellData.subset(start, end);
 	}
 
 	private double getAveragePeakByYear(int year, ArrayList<Peak> peaks)
 	{
-		ArrayList<Peak> subset = new ArrayList<Peak>();
-		Iterator<Peak> it = peaks.iterator();
-		double avg = 0;
-		int t = 1;
-		while (it.hasNext())
-		{
-			Peak peak = it.next();
-			if (peak.dateTime.getYear() == year)
-			{
-				avg += (peak.value - avg) / t;
-				++t;
-			}
-		}
-		return avg;
+		return aggregatePeaks(peaks).year(year).mean;
 	}
 
 	double mean(double[] ary)
@@ -1255,28 +1842,6 @@ public class DataAnalysisMain
 		double avg;
 	}
 
-	private class Rise
-	{
-		LocalDateTime date;
-		double minutes;
-	}
-
-	private class Peak
-	{
-		public Peak()
-		{
-		}
-
-		public Peak(LocalDateTime dt, double v)
-		{
-			dateTime = dt;
-			value = v;
-		}
-
-		LocalDateTime dateTime;
-		double value;
-	}
-
 	private class RainPoint
 	{
 		LocalDate date;
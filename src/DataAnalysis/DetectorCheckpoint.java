@@ -0,0 +1,117 @@
+package DataAnalysis;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+//
+// Saved state of a rise or peak detector after the readings at the start of
+// WellReadings.data, so readings appended later are scanned without going
+// over the history again. The event report is extended from where the
+// checkpoint left it and the report buckets are carried on.
+// A checkpoint is only used while its settings match and both the readings
+// file and the event report still start with the bytes it covered.
+//
+// Layout, big endian:
+//   int magic, int version, UTF settings
+//   readings file mark, int readings, event report mark, int events
+//   int length and the tracker state, then the report buckets
+//
+public class DetectorCheckpoint
+{
+	static final int MAGIC = 0x4B4E4350; // "KNCP"
+	static final int VERSION = 1;
+
+	// detector and calendar settings the checkpoint was made with
+	String settings;
+	// the readings file up to the last reading scanned, and the readings in it
+	FileMark source;
+	int readings;
+	// the event report up to the last event, and the events in it
+	FileMark report;
+	int events;
+	byte[] state;
+	BucketAggregator buckets;
+
+	DetectorCheckpoint()
+	{
+	}
+
+	public DetectorCheckpoint(String settings, FileMark source, int readings, FileMark report, int events,
+			byte[] state, BucketAggregator buckets)
+	{
+		this.settings = settings;
+		this.source = source;
+		this.readings = readings;
+		this.report = report;
+		this.events = events;
+		this.state = state;
+		this.buckets = buckets;
+	}
+
+	// RiseTimes.data -> RiseTimes.checkpoint in the same directory
+	public static File fileFor(String reportFile)
+	{
+		String name = reportFile;
+		int dot = name.lastIndexOf('.');
+		if (dot > Math.max(name.lastIndexOf('/'), name.lastIndexOf('\\')))
+			name = name.substring(0, dot);
+		return new File(name + ".checkpoint");
+	}
+
+	// Returns null if the checkpoint is missing, damaged, made with other
+	// settings, or the files it covered were changed other than by appending
+	public static DetectorCheckpoint load(File file, String settings, File source, File report, CalendarKeys calendar)
+	{
+		if (!file.exists())
+			return null;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file))))
+		{
+			if (in.readInt() != MAGIC || in.readInt() != VERSION || !in.readUTF().equals(settings))
+				return null;
+			DetectorCheckpoint cp = new DetectorCheckpoint();
+			cp.settings = settings;
+			cp.source = FileMark.read(in, source);
+			cp.readings = in.readInt();
+			cp.report = FileMark.read(in, report);
+			cp.events = in.readInt();
+			cp.state = new byte[in.readInt()];
+			in.readFully(cp.state);
+			cp.buckets = BucketAggregator.read(in, calendar);
+			if (!cp.source.onlyAppended() || !cp.report.onlyAppended())
+				return null;
+			return cp;
+		}
+		catch (IOException e)
+		{
+			// a full scan makes a new one
+			return null;
+		}
+	}
+
+	public void save(File file) throws IOException
+	{
+		File tmp = new File(file.getPath() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp))))
+		{
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeUTF(settings);
+			source.write(out);
+			out.writeInt(readings);
+			report.write(out);
+			out.writeInt(events);
+			out.writeInt(state.length);
+			out.write(state);
+			buckets.write(out);
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+}
@@ -0,0 +1,104 @@
+package DataAnalysis;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+
+//
+// How much of a file has been read, so a later look can tell whether lines
+// were only appended since. A file that was replaced, truncated or changed
+// before the mark must be read again from the start. The last TAIL bytes
+// before the mark are kept to catch rewrites that keep the same file.
+//
+public class FileMark
+{
+	static final int TAIL = 256;
+
+	File file;
+	long length;
+	long modified;
+	// inode or similar, null where the file system has none
+	Object fileKey;
+	byte[] tail;
+
+	public static FileMark of(File file) throws IOException
+	{
+		return of(file, -1);
+	}
+
+	// The mark at length bytes, for a file read that far, or at the end of
+	// the file when length is negative
+	public static FileMark of(File file, long length) throws IOException
+	{
+		FileMark mark = new FileMark();
+		mark.file = file;
+		mark.fileKey = Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey();
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r"))
+		{
+			mark.length = length < 0 ? raf.length() : length;
+			mark.tail = tail(raf, mark.length);
+		}
+		mark.modified = file.lastModified();
+		return mark;
+	}
+
+	// The length and tail only, as kept in a checkpoint
+	public void write(DataOutputStream out) throws IOException
+	{
+		out.writeLong(length);
+		out.writeInt(tail.length);
+		out.write(tail);
+	}
+
+	public static FileMark read(DataInputStream in, File file) throws IOException
+	{
+		FileMark mark = new FileMark();
+		mark.file = file;
+		mark.length = in.readLong();
+		mark.tail = new byte[in.readInt()];
+		in.readFully(mark.tail);
+		return mark;
+	}
+
+	// False once the file is gone
+	public boolean unchanged()
+	{
+		return file.exists() && file.length() == length && file.lastModified() == modified;
+	}
+
+	// True when the file still starts with the bytes up to the mark, as far as
+	// the size, the file key and the tail show
+	public boolean onlyAppended() throws IOException
+	{
+		if (!file.exists())
+			return false;
+		Object key = Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey();
+		if (fileKey != null && !fileKey.equals(key))
+			return false;
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r"))
+		{
+			if (raf.length() < length)
+				return false;
+			return Arrays.equals(tail, tail(raf, length));
+		}
+	}
+
+	// True when the bytes up to the mark end with a complete line
+	public boolean endsLine()
+	{
+		return tail.length > 0 && tail[tail.length - 1] == '\n';
+	}
+
+	private static byte[] tail(RandomAccessFile raf, long end) throws IOException
+	{
+		byte[] bytes = new byte[(int) Math.min(TAIL, end)];
+		raf.seek(end - bytes.length);
+		raf.readFully(bytes);
+		return bytes;
+	}
+}
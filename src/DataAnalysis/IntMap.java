@@ -0,0 +1,51 @@
+package DataAnalysis;
+
+import java.util.Arrays;
+
+//
+// Open-addressing map from ints to values, without boxing the keys.
+// Entries are kept in the order their keys were first put, see IntSet.
+//
+public class IntMap<V> extends IntSet
+{
+	Object[] values;
+
+	public IntMap()
+	{
+		this(8);
+	}
+
+	public IntMap(int expected)
+	{
+		super(expected);
+		values = new Object[keys.length];
+	}
+
+	@SuppressWarnings("unchecked")
+	public V get(int key)
+	{
+		int i = indexOf(key);
+		return i < 0 ? null : (V) values[i];
+	}
+
+	public void put(int key, V value)
+	{
+		// insert may grow values, so index it afterwards
+		int i = insert(key);
+		values[i] = value;
+	}
+
+	// The value numbered index in insertion order
+	@SuppressWarnings("unchecked")
+	public V value(int index)
+	{
+		return (V) values[index];
+	}
+
+	@Override
+	void growEntries(int capacity)
+	{
+		super.growEntries(capacity);
+		values = Arrays.copyOf(values, capacity);
+	}
+}
@@ -0,0 +1,129 @@
+package DataAnalysis;
+
+import java.util.Arrays;
+
+//
+// Open-addressing set of ints, without boxing. Keys are kept in the order
+// they were first added and are numbered by that order, so toArray() and
+// key(i) return them in insertion order.
+//
+public class IntSet
+{
+	// entry index + 1 for each slot, 0 when the slot is empty
+	int[] slots;
+	int[] keys;
+	int size;
+
+	public IntSet()
+	{
+		this(8);
+	}
+
+	public IntSet(int expected)
+	{
+		int capacity = Math.max(4, expected);
+		keys = new int[capacity];
+		slots = new int[tableSize(capacity)];
+	}
+
+	// True if the key was not in the set
+	public boolean add(int key)
+	{
+		int before = size;
+		insert(key);
+		return size > before;
+	}
+
+	public boolean contains(int key)
+	{
+		return indexOf(key) >= 0;
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	public boolean isEmpty()
+	{
+		return size == 0;
+	}
+
+	// The key numbered index in insertion order
+	public int key(int index)
+	{
+		return keys[index];
+	}
+
+	public int[] toArray()
+	{
+		return Arrays.copyOf(keys, size);
+	}
+
+	// Insertion number of the key, or -1
+	public int indexOf(int key)
+	{
+		int mask = slots.length - 1;
+		for (int h = hash(key) & mask;; h = (h + 1) & mask)
+		{
+			int slot = slots[h];
+			if (slot == 0)
+				return -1;
+			if (keys[slot - 1] == key)
+				return slot - 1;
+		}
+	}
+
+	// Insertion number of the key, adding it if missing
+	int insert(int key)
+	{
+		int mask = slots.length - 1;
+		int h = hash(key) & mask;
+		for (;; h = (h + 1) & mask)
+		{
+			int slot = slots[h];
+			if (slot == 0)
+				break;
+			if (keys[slot - 1] == key)
+				return slot - 1;
+		}
+		if (size == keys.length)
+			growEntries(size * 2);
+		keys[size] = key;
+		slots[h] = ++size;
+		// keep the table at most half full
+		if (size * 2 > slots.length)
+			rehash(slots.length * 2);
+		return size - 1;
+	}
+
+	void growEntries(int capacity)
+	{
+		keys = Arrays.copyOf(keys, capacity);
+	}
+
+	private void rehash(int tableSize)
+	{
+		slots = new int[tableSize];
+		int mask = tableSize - 1;
+		for (int i = 0; i < size; i++)
+		{
+			int h = hash(keys[i]) & mask;
+			while (slots[h] != 0)
+				h = (h + 1) & mask;
+			slots[h] = i + 1;
+		}
+	}
+
+	private static int tableSize(int capacity)
+	{
+		int n = Integer.highestOneBit(capacity * 2 - 1) << 1;
+		return Math.max(8, n);
+	}
+
+	private static int hash(int key)
+	{
+		int h = key * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+}
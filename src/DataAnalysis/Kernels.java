@@ -0,0 +1,94 @@
+package DataAnalysis;
+
+//
+// Numeric kernels over primitive double columns, such as the bucket columns
+// of a WellPyramid, for index ranges from to to-1. They skip NaN, which marks
+// a missing value. The min of no values is +infinity and the max -infinity,
+// as in Bucket.
+//
+// VectorKernels does the work with the jdk.incubator.vector API when it has
+// been compiled from the vector source folder and the JVM runs with
+// --add-modules jdk.incubator.vector; otherwise the scalar loops below do.
+// Sums added up in vector lanes can differ from a sequential sum in the
+// last bits.
+//
+public class Kernels
+{
+	interface Impl
+	{
+		double sum(double[] a, int from, int to);
+
+		double min(double[] a, int from, int to);
+
+		double max(double[] a, int from, int to);
+	}
+
+	static final Impl IMPL = load();
+
+	private static Impl load()
+	{
+		try
+		{
+			return (Impl) Class.forName("DataAnalysis.VectorKernels").getDeclaredConstructor().newInstance();
+		}
+		catch (ReflectiveOperationException | LinkageError e)
+		{
+			// not compiled in, or the incubator module is not loaded
+			return new Scalar();
+		}
+	}
+
+	// "vector" or "scalar", for logs and benchmarks
+	public static String name()
+	{
+		return IMPL instanceof Scalar ? "scalar" : "vector";
+	}
+
+	public static double sum(double[] a, int from, int to)
+	{
+		return IMPL.sum(a, from, to);
+	}
+
+	public static double min(double[] a, int from, int to)
+	{
+		return IMPL.min(a, from, to);
+	}
+
+	public static double max(double[] a, int from, int to)
+	{
+		return IMPL.max(a, from, to);
+	}
+
+	static class Scalar implements Impl
+	{
+		@Override
+		public double sum(double[] a, int from, int to)
+		{
+			double sum = 0;
+			for (int i = from; i < to; i++)
+				if (a[i] == a[i])
+					sum += a[i];
+			return sum;
+		}
+
+		@Override
+		public double min(double[] a, int from, int to)
+		{
+			double min = Double.POSITIVE_INFINITY;
+			for (int i = from; i < to; i++)
+				if (a[i] < min)
+					min = a[i];
+			return min;
+		}
+
+		@Override
+		public double max(double[] a, int from, int to)
+		{
+			double max = Double.NEGATIVE_INFINITY;
+			for (int i = from; i < to; i++)
+				if (a[i] > max)
+					max = a[i];
+			return max;
+		}
+	}
+}
@@ -0,0 +1,192 @@
+package DataAnalysis;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.function.IntToDoubleFunction;
+
+//
+// A WellSeries whose columns stay in WellReadings.columns next to
+// WellReadings.data, mapped read-only, so the readings take no heap and are
+// never copied by the garbage collector. The operating system pages them in
+// as they are read and can drop them again under memory pressure.
+// Reads are absolute, so one series and its range views can be used from any
+// number of threads. The series is read-only; an appended readings file makes
+// it stale like the binary cache.
+//
+// Layout, little endian so the columns are in the byte order of the usual CPUs:
+//   int magic, int version, long source length, long source modified,
+//   int count, int 0, then count longs of minutes and count doubles of
+//   compensated depth, original depth, water temp and air temp
+//
+public class MappedWellSeries extends WellSeries
+{
+	static final int MAGIC = 0x4B4E5743; // "KNWC"
+	static final int VERSION = 1;
+	static final int HEADER = 32;
+
+	LongBuffer minuteColumn;
+	DoubleBuffer compensatedColumn;
+	DoubleBuffer originalColumn;
+	DoubleBuffer waterColumn;
+	DoubleBuffer airColumn;
+
+	private MappedWellSeries()
+	{
+		super(0);
+		view = true;
+	}
+
+	// View of source entries from to to-1
+	private MappedWellSeries(MappedWellSeries source, int from, int to)
+	{
+		this();
+		minuteColumn = source.minuteColumn;
+		compensatedColumn = source.compensatedColumn;
+		originalColumn = source.originalColumn;
+		waterColumn = source.waterColumn;
+		airColumn = source.airColumn;
+		offset = source.offset + from;
+		size = to - from;
+		sortedState = 1;
+	}
+
+	@Override
+	public long minute(int i)
+	{
+		return minuteColumn.get(offset + i);
+	}
+
+	@Override
+	public double compensatedDepth(int i)
+	{
+		return compensatedColumn.get(offset + i);
+	}
+
+	@Override
+	public double originalDepth(int i)
+	{
+		return originalColumn.get(offset + i);
+	}
+
+	@Override
+	public double waterTemp(int i)
+	{
+		return waterColumn.get(offset + i);
+	}
+
+	@Override
+	public double airTemp(int i)
+	{
+		return airColumn.get(offset + i);
+	}
+
+	@Override
+	WellSeries view(int from, int to)
+	{
+		return new MappedWellSeries(this, from, to);
+	}
+
+	// WellReadings.data -> WellReadings.columns in the same directory
+	public static File fileFor(String dataFile)
+	{
+		String name = dataFile;
+		int dot = name.lastIndexOf('.');
+		if (dot > Math.max(name.lastIndexOf('/'), name.lastIndexOf('\\')))
+			name = name.substring(0, dot);
+		return new File(name + ".columns");
+	}
+
+	// Returns null if the column file is missing, from another version or stale
+	public static MappedWellSeries load(File file, File source) throws IOException
+	{
+		if (!file.exists() || !source.exists())
+			return null;
+		try (FileChannel fc = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+		{
+			if (fc.size() < HEADER)
+				return null;
+			// the header is read rather than mapped, so a stale file is never
+			// left mapped: Windows will not replace a file that is
+			ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+			while (header.hasRemaining())
+				if (fc.read(header) < 0)
+					return null;
+			header.flip();
+			if (header.getInt() != MAGIC || header.getInt() != VERSION)
+				return null;
+			if (header.getLong() != source.length() || header.getLong() != source.lastModified())
+				return null;
+			int count = header.getInt();
+			long column = 8L * count;
+			if (count < 0 || fc.size() != HEADER + 5 * column)
+				return null;
+			// each column is mapped on its own, a mapping holds at most 2 GB;
+			// the mappings outlive the channel
+			MappedWellSeries series = new MappedWellSeries();
+			series.size = count;
+			series.minuteColumn = map(fc, HEADER, column).asLongBuffer();
+			series.compensatedColumn = map(fc, HEADER + column, column).asDoubleBuffer();
+			series.originalColumn = map(fc, HEADER + 2 * column, column).asDoubleBuffer();
+			series.waterColumn = map(fc, HEADER + 3 * column, column).asDoubleBuffer();
+			series.airColumn = map(fc, HEADER + 4 * column, column).asDoubleBuffer();
+			return series;
+		}
+	}
+
+	private static ByteBuffer map(FileChannel fc, long position, long length) throws IOException
+	{
+		return fc.map(FileChannel.MapMode.READ_ONLY, position, length).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	public static void write(WellSeries series, File file, File source) throws IOException
+	{
+		File tmp = new File(file.getPath() + ".tmp");
+		int count = series.size();
+		try (FileChannel fc = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))
+		{
+			ByteBuffer b = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+			b.putInt(MAGIC).putInt(VERSION).putLong(source.length()).putLong(source.lastModified());
+			b.putInt(count).putInt(0);
+			for (int i = 0; i < count; i++)
+			{
+				if (b.remaining() < 8)
+					flush(fc, b);
+				b.putLong(series.minute(i));
+			}
+			writeColumn(fc, b, count, series::compensatedDepth);
+			writeColumn(fc, b, count, series::originalDepth);
+			writeColumn(fc, b, count, series::waterTemp);
+			writeColumn(fc, b, count, series::airTemp);
+			flush(fc, b);
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	private static void writeColumn(FileChannel fc, ByteBuffer b, int count, IntToDoubleFunction column)
+			throws IOException
+	{
+		for (int i = 0; i < count; i++)
+		{
+			if (b.remaining() < 8)
+				flush(fc, b);
+			b.putDouble(column.applyAsDouble(i));
+		}
+	}
+
+	private static void flush(FileChannel fc, ByteBuffer b) throws IOException
+	{
+		b.flip();
+		while (b.hasRemaining())
+			fc.write(b);
+		b.clear();
+	}
+}
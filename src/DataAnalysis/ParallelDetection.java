@@ -0,0 +1,114 @@
+package DataAnalysis;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+//
+// Runs a ChunkedDetector over time chunks of a series on a ForkJoinPool.
+// Each chunk starts at the first sync point at or after its nominal start and
+// runs on to the next chunk's sync point, so the chunks overlap by exactly
+// as much as the detector needs and the joined events match a sequential scan.
+//
+public class ParallelDetection
+{
+	// readings per chunk
+	static final int CHUNK = 1 << 18;
+
+	public static <T> ArrayList<T> run(ChunkedDetector<T> detector, WellSeries series, ForkJoinPool pool)
+	{
+		return run(detector, series, pool, CHUNK);
+	}
+
+	public static <T> ArrayList<T> run(ChunkedDetector<T> detector, WellSeries series, ForkJoinPool pool, int chunkSize)
+	{
+		int size = series.size();
+		if (size <= chunkSize)
+			return detector.scan(series, 0, size);
+		return pool.invoke(new ChunkTask<T>(detector, series, chunkSize));
+	}
+
+	// A sync point among the last readings, searching back in growing steps,
+	// or 0 if the series has none. Scanning on from it leaves the detector in
+	// the same state as a scan of the whole series.
+	public static int syncPointNearEnd(ChunkedDetector<?> detector, WellSeries series)
+	{
+		int size = series.size();
+		for (long span = 1024;; span *= 4)
+		{
+			int from = (int) Math.max(0, size - span);
+			if (from == 0)
+				return 0;
+			int sync = detector.syncPoint(series, from);
+			if (sync < size)
+				return sync;
+		}
+	}
+
+	static class ChunkTask<T> extends RecursiveTask<ArrayList<T>>
+	{
+		private static final long serialVersionUID = 1L;
+		ChunkedDetector<T> detector;
+		WellSeries series;
+		int chunkSize;
+
+		ChunkTask(ChunkedDetector<T> detector, WellSeries series, int chunkSize)
+		{
+			this.detector = detector;
+			this.series = series;
+			this.chunkSize = chunkSize;
+		}
+
+		@Override
+		protected ArrayList<T> compute()
+		{
+			int size = series.size();
+			int chunks = (size + chunkSize - 1) / chunkSize;
+			// chunk i covers starts[i] to starts[i + 1]
+			int[] starts = new int[chunks + 1];
+			starts[chunks] = size;
+			List<RecursiveTask<Integer>> syncs = new ArrayList<RecursiveTask<Integer>>();
+			for (int i = 1; i < chunks; i++)
+			{
+				int from = i * chunkSize;
+				syncs.add(task(() -> detector.syncPoint(series, from)));
+			}
+			ForkJoinTask.invokeAll(syncs);
+			for (int i = 1; i < chunks; i++)
+				starts[i] = syncs.get(i - 1).join();
+			List<RecursiveTask<ArrayList<T>>> scans = new ArrayList<RecursiveTask<ArrayList<T>>>();
+			for (int i = 0; i < chunks; i++)
+			{
+				int from = starts[i];
+				int to = starts[i + 1];
+				scans.add(task(() -> from < to ? detector.scan(series, from, to) : new ArrayList<T>()));
+			}
+			ForkJoinTask.invokeAll(scans);
+			ArrayList<T> out = new ArrayList<T>();
+			for (RecursiveTask<ArrayList<T>> scan : scans)
+				out.addAll(scan.join());
+			return out;
+		}
+	}
+
+	interface Work<V>
+	{
+		V call();
+	}
+
+	static <V> RecursiveTask<V> task(Work<V> work)
+	{
+		return new RecursiveTask<V>()
+		{
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected V compute()
+			{
+				return work.call();
+			}
+		};
+	}
+}
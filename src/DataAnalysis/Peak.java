@@ -0,0 +1,19 @@
+package DataAnalysis;
+
+import java.time.LocalDateTime;
+
+public class Peak
+{
+	public LocalDateTime dateTime;
+	public double value;
+
+	public Peak()
+	{
+	}
+
+	public Peak(LocalDateTime dt, double v)
+	{
+		dateTime = dt;
+		value = v;
+	}
+}
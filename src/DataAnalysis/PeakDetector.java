@@ -0,0 +1,233 @@
+package DataAnalysis;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+
+//
+// Finds depth peaks in one pass over the well readings.
+// A peak is the top of an upslope followed by more than downPoints readings
+// that do not rise. Readings at or below zero are skipped.
+// A tracker's state can be saved and restored, so detection can resume
+// where an earlier run stopped.
+//
+public class PeakDetector implements ChunkedDetector<Peak>
+{
+	// minimum number of down readings to qualify as a peak
+	int downPoints;
+	// minimum minutes between peaks, 0 keeps every peak
+	int minSeparation;
+
+	public PeakDetector(int downPoints, int minSeparation)
+	{
+		this.downPoints = downPoints;
+		this.minSeparation = minSeparation;
+	}
+
+	public ArrayList<Peak> findPeaks(WellSeries series)
+	{
+		return applySeparation(scan(series, 0, series.size()));
+	}
+
+	public ArrayList<Peak> findPeaks(WellSeries series, ForkJoinPool pool)
+	{
+		return applySeparation(ParallelDetection.run(this, series, pool));
+	}
+
+	// Incremental form for streamed readings, separation rule included
+	public Tracker tracker(Consumer<Peak> events)
+	{
+		return new Tracker(events, minSeparation > 0);
+	}
+
+	// The state a tracker() run over the whole series ends in, from its last
+	// readings. lastPeak is the last peak kept, for the separation rule.
+	public Tracker endState(WellSeries series, Peak lastPeak)
+	{
+		Tracker tracker = tracker(peak -> {});
+		scan(tracker, series, ParallelDetection.syncPointNearEnd(this, series), series.size());
+		tracker.lastKept = lastPeak;
+		return tracker;
+	}
+
+	// A down step straight after an up step always marks a new peak candidate
+	// and restarts the down count, whatever came before it.
+	@Override
+	public int syncPoint(WellSeries series, int from)
+	{
+		int size = series.size();
+		int previous = from - 1;
+		while (previous >= 0 && series.compensatedDepth(previous) <= 0d)
+			previous--;
+		boolean previousUp = previous >= 0 && headedUp(series, previous);
+		for (int i = from; i + 1 < size; i++)
+		{
+			if (series.compensatedDepth(i) <= 0d)
+				continue;
+			boolean up = headedUp(series, i);
+			if (!up && previousUp)
+				return i;
+			previousUp = up;
+		}
+		return size;
+	}
+
+	@Override
+	public ArrayList<Peak> scan(WellSeries series, int from, int to)
+	{
+		ArrayList<Peak> peaksOut = new ArrayList<Peak>();
+		scan(new Tracker(peaksOut::add, false), series, from, to);
+		return peaksOut;
+	}
+
+	private void scan(Tracker tracker, WellSeries series, int from, int to)
+	{
+		// a sync point is entered straight from an upslope
+		if (from > 0)
+			tracker.upPoints = 1;
+		// each step looks one reading ahead
+		int end = Math.min(to + 1, series.size());
+		for (int i = from; i < end; i++)
+			tracker.depth(series.minute(i), series.compensatedDepth(i));
+	}
+
+	private boolean headedUp(WellSeries series, int i)
+	{
+		return series.compensatedDepth(i + 1) - series.compensatedDepth(i) > 0d;
+	}
+
+	// Drop any peak closer than minSeparation minutes to the previous kept peak
+	ArrayList<Peak> applySeparation(ArrayList<Peak> peaksIn)
+	{
+		if (minSeparation <= 0)
+			return peaksIn;
+		ArrayList<Peak> peaksOut = new ArrayList<Peak>();
+		Consumer<Peak> filter = separated(peaksOut::add);
+		for (Peak peak : peaksIn)
+			filter.accept(peak);
+		return peaksOut;
+	}
+
+	Consumer<Peak> separated(Consumer<Peak> next)
+	{
+		if (minSeparation <= 0)
+			return next;
+		return new Consumer<Peak>()
+		{
+			Peak lastKept;
+
+			@Override
+			public void accept(Peak peak)
+			{
+				if (lastKept != null && Duration.between(lastKept.dateTime, peak.dateTime).toMinutes() < minSeparation)
+					return;
+				next.accept(peak);
+				lastKept = peak;
+			}
+		};
+	}
+
+	//
+	// Peak detection state. A reading is only judged once the next one
+	// arrives, so the latest reading is held as pending.
+	//
+	public class Tracker implements ReadingSink
+	{
+		Consumer<Peak> events;
+		// apply the separation rule, against the last peak kept
+		boolean separate;
+		Peak lastKept;
+		boolean hasPending;
+		long pendingMinute;
+		double pendingDepth;
+		boolean hasPeak;
+		long peakMinute;
+		double peakDepth;
+		int upPoints;
+		int down;
+
+		Tracker(Consumer<Peak> events, boolean separate)
+		{
+			this.events = events;
+			this.separate = separate;
+		}
+
+		@Override
+		public void reading(long minute, double compensated, double original, double water, double air)
+		{
+			depth(minute, compensated);
+		}
+
+		public void depth(long minute, double depth)
+		{
+			if (hasPending && !(pendingDepth <= 0d))
+				step(depth - pendingDepth);
+			hasPending = true;
+			pendingMinute = minute;
+			pendingDepth = depth;
+		}
+
+		private void step(double diff)
+		{
+			if (diff > 0d) // headed up
+			{
+				down = 0;
+				upPoints++;
+				return;
+			}
+			// headed down
+			if (upPoints > 0)
+			{
+				hasPeak = true;
+				peakMinute = pendingMinute;
+				peakDepth = pendingDepth;
+				upPoints = 0;
+			}
+			down++;
+			if (down > downPoints && hasPeak)
+			{
+				emit(new Peak(WellSeries.toDateTime(peakMinute), peakDepth));
+				down = 0;
+			}
+		}
+
+		private void emit(Peak peak)
+		{
+			if (separate && lastKept != null
+					&& Duration.between(lastKept.dateTime, peak.dateTime).toMinutes() < minSeparation)
+				return;
+			events.accept(peak);
+			lastKept = peak;
+		}
+
+		public byte[] save()
+		{
+			ByteBuffer b = ByteBuffer.allocate(59);
+			b.put((byte) (hasPending ? 1 : 0)).putLong(pendingMinute).putDouble(pendingDepth);
+			b.put((byte) (hasPeak ? 1 : 0)).putLong(peakMinute).putDouble(peakDepth);
+			b.putInt(upPoints).putInt(down);
+			b.put((byte) (lastKept != null ? 1 : 0));
+			if (lastKept != null)
+				b.putLong(WellSeries.toMinute(lastKept.dateTime)).putDouble(lastKept.value);
+			return b.array();
+		}
+
+		public void restore(byte[] state)
+		{
+			ByteBuffer b = ByteBuffer.wrap(state);
+			hasPending = b.get() != 0;
+			pendingMinute = b.getLong();
+			pendingDepth = b.getDouble();
+			hasPeak = b.get() != 0;
+			peakMinute = b.getLong();
+			peakDepth = b.getDouble();
+			upPoints = b.getInt();
+			down = b.getInt();
+			lastKept = null;
+			if (b.get() != 0)
+				lastKept = new Peak(WellSeries.toDateTime(b.getLong()), b.getDouble());
+		}
+	}
+}
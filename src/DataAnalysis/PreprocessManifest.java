@@ -0,0 +1,180 @@
+package DataAnalysis;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+//
+// Record of the raw input files preProcess has already ingested.
+// One line per file: path relative to the root, size, modified time, SHA-256.
+// Files whose size and time are unchanged are not hashed again.
+//
+public class PreprocessManifest
+{
+	public static final String[] RAW_DIRS = { "WellData", "usage", "WeatherData" };
+
+	TreeMap<String, Entry> entries = new TreeMap<String, Entry>();
+
+	static class Entry
+	{
+		long size;
+		long modified;
+		String hash;
+
+		boolean sameContent(Entry other)
+		{
+			return other != null && size == other.size && hash.equals(other.hash);
+		}
+	}
+
+	public static PreprocessManifest load(File file) throws IOException
+	{
+		PreprocessManifest manifest = new PreprocessManifest();
+		if (!file.exists())
+			return manifest;
+		try (BufferedReader br = new BufferedReader(new FileReader(file)))
+		{
+			String line;
+			while ((line = br.readLine()) != null)
+			{
+				String[] tokens = line.split("\t");
+				if (tokens.length != 4)
+					continue;
+				Entry e = new Entry();
+				e.size = Long.parseLong(tokens[1]);
+				e.modified = Long.parseLong(tokens[2]);
+				e.hash = tokens[3];
+				manifest.entries.put(tokens[0], e);
+			}
+		}
+		return manifest;
+	}
+
+	// Current state of the raw directories under rootDir
+	public static PreprocessManifest scan(String rootDir, PreprocessManifest previous) throws IOException
+	{
+		return scan(rootDir, previous, null);
+	}
+
+	// As scan, hashing the new and changed files as tasks on executor
+	public static PreprocessManifest scan(String rootDir, PreprocessManifest previous, ExecutorService executor)
+			throws IOException
+	{
+		PreprocessManifest manifest = new PreprocessManifest();
+		TreeMap<String, Future<String>> hashes = new TreeMap<String, Future<String>>();
+		for (String dir : RAW_DIRS)
+		{
+			File[] files = new File(rootDir, dir).listFiles();
+			if (files == null)
+				continue;
+			for (File f : files)
+			{
+				// the compensation error log is our own output
+				if (!f.isFile() || f.getName().equals("WeatherDataErrors.txt"))
+					continue;
+				String path = dir + "/" + f.getName();
+				Entry e = new Entry();
+				e.size = f.length();
+				e.modified = f.lastModified();
+				Entry old = previous.entries.get(path);
+				if (old != null && old.size == e.size && old.modified == e.modified)
+					e.hash = old.hash;
+				else if (executor != null)
+					hashes.put(path, executor.submit(() -> sha256(f)));
+				else
+					e.hash = sha256(f);
+				manifest.entries.put(path, e);
+			}
+		}
+		for (Map.Entry<String, Future<String>> me : hashes.entrySet())
+			manifest.entries.get(me.getKey()).hash = RawIngest.get(me.getValue());
+		return manifest;
+	}
+
+	public void save(File file) throws IOException
+	{
+		try (BufferedWriter bw = new BufferedWriter(new FileWriter(file)))
+		{
+			for (Map.Entry<String, Entry> me : entries.entrySet())
+			{
+				Entry e = me.getValue();
+				bw.write(me.getKey() + "\t" + e.size + "\t" + e.modified + "\t" + e.hash + "\n");
+			}
+		}
+	}
+
+	// Files in dir, as paths relative to the root
+	public ArrayList<String> files(String dir)
+	{
+		ArrayList<String> out = new ArrayList<String>();
+		for (String path : entries.keySet())
+		{
+			if (path.startsWith(dir + "/"))
+				out.add(path);
+		}
+		return out;
+	}
+
+	// Files in dir that are new since previous
+	public ArrayList<String> added(PreprocessManifest previous, String dir)
+	{
+		ArrayList<String> out = new ArrayList<String>();
+		for (String path : entries.keySet())
+		{
+			if (path.startsWith(dir + "/") && !previous.entries.containsKey(path))
+				out.add(path);
+		}
+		return out;
+	}
+
+	// True if any file in dir that previous knew about has changed or gone
+	public boolean modifiedOrRemoved(PreprocessManifest previous, String dir)
+	{
+		for (Map.Entry<String, Entry> me : previous.entries.entrySet())
+		{
+			if (me.getKey().startsWith(dir + "/") && !me.getValue().sameContent(entries.get(me.getKey())))
+				return true;
+		}
+		return false;
+	}
+
+	public boolean changed(PreprocessManifest previous, String dir)
+	{
+		return !added(previous, dir).isEmpty() || modifiedOrRemoved(previous, dir);
+	}
+
+	private static String sha256(File f) throws IOException
+	{
+		try
+		{
+			MessageDigest md = MessageDigest.getInstance("SHA-256");
+			byte[] buf = new byte[1 << 16];
+			try (InputStream in = new FileInputStream(f))
+			{
+				int n;
+				while ((n = in.read(buf)) > 0)
+					md.update(buf, 0, n);
+			}
+			StringBuilder sb = new StringBuilder();
+			for (byte b : md.digest())
+				sb.append(String.format("%02x", b));
+			return sb.toString();
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			throw new IOException(e);
+		}
+	}
+}
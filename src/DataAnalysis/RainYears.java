@@ -0,0 +1,195 @@
+package DataAnalysis;
+
+import java.time.LocalDate;
+import java.time.MonthDay;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+//
+// Rain seasons built from daily precipitation in one pass. A season starts on
+// the calendar's rain season start and runs for a year; it is named by the
+// year it starts in. Each day has a slot in the season: the days of a leap
+// year counted from the season start, so a given month and day has the same
+// slot in every season and seasons can be compared day by day.
+//
+public class RainYears
+{
+	static final int SLOTS = 366;
+
+	CalendarKeys calendar;
+	// slot of month * 32 + day, and the month and day of each slot
+	int[] slotOf = new int[13 * 32];
+	MonthDay[] monthDayOf = new MonthDay[SLOTS];
+	// slots before January 1st fall in the year the season starts
+	int firstYearSlots;
+	IntMap<Season> seasons = new IntMap<Season>();
+	Season current;
+
+	public static class Season
+	{
+		public int startYear;
+		public int count;
+		public int[] slots = new int[SLOTS];
+		public double[] rainfall = new double[SLOTS];
+		// running total through each day, in the order the days were added
+		public double[] cumulative = new double[SLOTS];
+		public double total;
+		// slot of the day before the next season starts, short of the last
+		// slot when the season has no February 29th at its end
+		int lastSlot = SLOTS - 1;
+
+		Season(int startYear)
+		{
+			this.startYear = startYear;
+		}
+
+		void add(int slot, double rain)
+		{
+			if (count == slots.length)
+			{
+				slots = Arrays.copyOf(slots, count * 2);
+				rainfall = Arrays.copyOf(rainfall, count * 2);
+				cumulative = Arrays.copyOf(cumulative, count * 2);
+			}
+			total += rain;
+			slots[count] = slot;
+			rainfall[count] = rain;
+			cumulative[count] = total;
+			count++;
+		}
+
+		// Has the first and last day of the season
+		public boolean isComplete()
+		{
+			return count > 0 && slots[0] == 0 && slots[count - 1] == lastSlot;
+		}
+
+		// Total through each slot, carried over days without a reading
+		public double[] bySlot()
+		{
+			double[] out = new double[SLOTS];
+			int i = 0;
+			double running = 0;
+			for (int slot = 0; slot < SLOTS; slot++)
+			{
+				while (i < count && slots[i] <= slot)
+					running = cumulative[i++];
+				out[slot] = running;
+			}
+			return out;
+		}
+	}
+
+	public RainYears(CalendarKeys calendar)
+	{
+		this.calendar = calendar;
+		MonthDay start = calendar.seasonStart;
+		// 2000 is a leap year so every month and day gets a slot
+		int startDay = LocalDate.of(2000, start.getMonthValue(), start.getDayOfMonth()).getDayOfYear() - 1;
+		firstYearSlots = SLOTS - startDay;
+		for (int day = 0; day < SLOTS; day++)
+		{
+			LocalDate date = LocalDate.ofYearDay(2000, day + 1);
+			int slot = (day - startDay + SLOTS) % SLOTS;
+			slotOf[date.getMonthValue() * 32 + date.getDayOfMonth()] = slot;
+			monthDayOf[slot] = MonthDay.from(date);
+		}
+	}
+
+	public void add(LocalDate date, double rainfall)
+	{
+		int startYear = CalendarKeys.rainYear(calendar.key(date));
+		if (current == null || current.startYear != startYear)
+		{
+			current = seasons.get(startYear);
+			if (current == null)
+			{
+				current = new Season(startYear);
+				current.lastSlot = lastSlot(startYear);
+				seasons.put(startYear, current);
+			}
+		}
+		current.add(slotOf[date.getMonthValue() * 32 + date.getDayOfMonth()], rainfall);
+	}
+
+	// Slot of the last day of the season starting in startYear
+	int lastSlot(int startYear)
+	{
+		LocalDate end = calendar.seasonStart.atYear(startYear + 1).minusDays(1);
+		return slotOf[end.getMonthValue() * 32 + end.getDayOfMonth()];
+	}
+
+	// Empty if no days fell in the season
+	public Season season(int startYear)
+	{
+		Season season = seasons.get(startYear);
+		if (season == null)
+		{
+			season = new Season(startYear);
+			season.lastSlot = lastSlot(startYear);
+		}
+		return season;
+	}
+
+	// In start year order
+	public ArrayList<Season> seasons()
+	{
+		int[] years = seasons.toArray();
+		Arrays.sort(years);
+		ArrayList<Season> out = new ArrayList<Season>(years.length);
+		for (int year : years)
+			out.add(seasons.get(year));
+		return out;
+	}
+
+	public MonthDay monthDay(int slot)
+	{
+		return monthDayOf[slot];
+	}
+
+	// 0 for days in the year the season starts, 1 for days in the next year
+	public int yearOfSeason(int slot)
+	{
+		return slot < firstYearSlots ? 0 : 1;
+	}
+
+	public int completeSeasons()
+	{
+		int n = 0;
+		for (int i = 0; i < seasons.size(); i++)
+			if (seasons.value(i).isComplete())
+				n++;
+		return n;
+	}
+
+	// Season-to-date total at each slot across the complete seasons, as
+	// [slot][percentile] with percentiles from 0 to 100, interpolated
+	// between the closest ranks. Null if there are no complete seasons.
+	public double[][] percentiles(double... percentiles)
+	{
+		int n = completeSeasons();
+		if (n == 0)
+			return null;
+		double[][] totals = new double[n][];
+		int k = 0;
+		for (Season season : seasons())
+			if (season.isComplete())
+				totals[k++] = season.bySlot();
+		double[][] out = new double[SLOTS][percentiles.length];
+		double[] values = new double[n];
+		for (int slot = 0; slot < SLOTS; slot++)
+		{
+			for (int i = 0; i < n; i++)
+				values[i] = totals[i][slot];
+			Arrays.sort(values);
+			for (int p = 0; p < percentiles.length; p++)
+			{
+				double rank = percentiles[p] / 100 * (n - 1);
+				int lo = (int) Math.floor(rank);
+				int hi = Math.min(lo + 1, n - 1);
+				out[slot][p] = values[lo] + (values[hi] - values[lo]) * (rank - lo);
+			}
+		}
+		return out;
+	}
+}
@@ -0,0 +1,301 @@
+package DataAnalysis;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import helloWorld.AtmosphericCompensation;
+import helloWorld.WeatherData;
+import helloWorld.WellData;
+
+//
+// Ingests raw logger downloads one file per task, so many small files on slow
+// storage are read side by side instead of one after another. Tasks run on
+// virtual threads where the JVM provides them (Java 21, or 19 and 20 with
+// preview enabled) and on a pool of IO_THREADS platform threads otherwise.
+// New well files are linked into a directory of their own so the WellData
+// loader reads just that file, and the results are merged into time order.
+// Compensation runs one file at a time, as the shared WeatherData and
+// AtmosphericCompensation are not known to be thread safe. A full rebuild
+// goes through WellData once over the whole WellData folder, as it always
+// has, so overlapping files are resolved the same way.
+//
+public class RawIngest
+{
+	static int IO_THREADS = 32;
+	// held while compensating
+	private static final Object COMPENSATION = new Object();
+
+	public static ExecutorService newExecutor()
+	{
+		try
+		{
+			Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) m.invoke(null);
+		}
+		catch (ReflectiveOperationException | RuntimeException e)
+		{
+			return Executors.newFixedThreadPool(IO_THREADS);
+		}
+	}
+
+	// The task's result, with an IOException it threw rethrown as is
+	public static <T> T get(Future<T> future) throws IOException
+	{
+		try
+		{
+			return future.get();
+		}
+		catch (ExecutionException e)
+		{
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new IOException(e.getCause());
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		}
+	}
+
+	// Compensates all of rootDir/WellData against the weather in one pass and
+	// writes the readings to outFile, with the compensation errors in
+	// errorFile. Returns the number of readings written.
+	public static int rebuildWellFile(String rootDir, Future<WeatherData> weather, String outFile, String errorFile)
+			throws IOException
+	{
+		WellData wellData = new WellData(rootDir + "/WellData", null);
+		try (BufferedWriter bw = new BufferedWriter(new FileWriter(errorFile)))
+		{
+			AtmosphericCompensation.calculate(wellData, get(weather), bw);
+		}
+		File tmp = new File(outFile + ".tmp");
+		wellData.write(tmp.getPath());
+		Files.move(tmp.toPath(), new File(outFile).toPath(), StandardCopyOption.REPLACE_EXISTING);
+		return countReadings(new File(outFile));
+	}
+
+	// Compensates the new well files (paths relative to rootDir) against the
+	// weather and writes their readings to outFile in time order, keeping the
+	// first of any readings with the same time stamp. Compensation errors are
+	// added to errorFile in file order. Returns the number of readings written.
+	public static int ingestWellFiles(String rootDir, List<String> paths, Future<WeatherData> weather,
+			String outFile, String errorFile, ExecutorService executor) throws IOException
+	{
+		File staging = new File(rootDir + "/Output/WellDataNew");
+		deleteTree(staging);
+		ArrayList<Future<String>> errors = new ArrayList<Future<String>>();
+		ArrayList<File> parts = new ArrayList<File>();
+		try
+		{
+			for (int i = 0; i < paths.size(); i++)
+			{
+				File source = new File(rootDir, paths.get(i));
+				File dir = new File(staging, Integer.toString(i));
+				File part = new File(staging, i + ".data");
+				parts.add(part);
+				errors.add(executor.submit(() -> compensate(source, dir, part, weather)));
+			}
+			try (BufferedWriter bw = new BufferedWriter(new FileWriter(errorFile, true)))
+			{
+				for (Future<String> f : errors)
+					bw.write(get(f));
+			}
+			return merge(parts, outFile);
+		}
+		finally
+		{
+			for (Future<String> f : errors)
+				f.cancel(true);
+			deleteTree(staging);
+		}
+	}
+
+	// The first day the weather files (paths relative to rootDir) have
+	// readings for, or null if they have none. The files are linked into a
+	// root of their own and read there, as compensate does with well files.
+	public static String firstWeatherDay(String rootDir, List<String> paths) throws IOException
+	{
+		File staging = new File(rootDir + "/Output/WeatherDataNew");
+		deleteTree(staging);
+		try
+		{
+			File dir = new File(staging, "WeatherData");
+			dir.mkdirs();
+			new File(staging, "Output").mkdirs();
+			for (String path : paths)
+			{
+				File source = new File(rootDir, path);
+				stage(source, new File(dir, source.getName()));
+			}
+			new WeatherData(staging.getPath()).writeDaily(staging.getPath());
+			File daily = new File(staging, "Output/DailyPrecipitation.data");
+			if (!daily.exists())
+				return null;
+			String first = null;
+			try (BufferedReader br = new BufferedReader(new FileReader(daily)))
+			{
+				String line;
+				while ((line = br.readLine()) != null)
+				{
+					if (line.length() < 10 || !Character.isDigit(line.charAt(0)) || line.charAt(4) != '-')
+						continue;
+					String day = line.substring(0, 10);
+					if (first == null || day.compareTo(first) < 0)
+						first = day;
+				}
+			}
+			return first;
+		}
+		finally
+		{
+			deleteTree(staging);
+		}
+	}
+
+	// Returns the compensation errors for the file
+	private static String compensate(File source, File dir, File part, Future<WeatherData> weather)
+			throws IOException
+	{
+		dir.mkdirs();
+		stage(source, new File(dir, source.getName()));
+		WellData wellData = new WellData(dir.getPath(), null);
+		StringWriter errors = new StringWriter();
+		try (BufferedWriter bw = new BufferedWriter(errors))
+		{
+			WeatherData weatherData = get(weather);
+			synchronized (COMPENSATION)
+			{
+				AtmosphericCompensation.calculate(wellData, weatherData, bw);
+			}
+		}
+		wellData.write(part.getPath());
+		return errors.toString();
+	}
+
+	// A hard link where the file system has them, so the raw file is not
+	// read and written once more just to be staged
+	private static void stage(File source, File target) throws IOException
+	{
+		try
+		{
+			Files.createLink(target.toPath(), source.toPath());
+		}
+		catch (IOException | UnsupportedOperationException e)
+		{
+			Files.copy(source.toPath(), target.toPath(), StandardCopyOption.COPY_ATTRIBUTES);
+		}
+	}
+
+	// Lines with a yyyy-MM-dd HH:mm stamp, after the header
+	private static int countReadings(File file) throws IOException
+	{
+		int count = 0;
+		try (BufferedReader br = new BufferedReader(new FileReader(file), 1 << 16))
+		{
+			br.readLine();
+			String line;
+			while ((line = br.readLine()) != null)
+				if (line.length() >= 16)
+					count++;
+		}
+		return count;
+	}
+
+	static class Part
+	{
+		BufferedReader reader;
+		String line;
+		int index;
+
+		boolean next() throws IOException
+		{
+			do
+				line = reader.readLine();
+			while (line != null && line.length() < 16);
+			return line != null;
+		}
+	}
+
+	// k-way merge of the parts on their yyyy-MM-dd HH:mm stamps. Each part
+	// starts with a header line; the first header is kept.
+	private static int merge(List<File> parts, String outFile) throws IOException
+	{
+		PriorityQueue<Part> queue = new PriorityQueue<Part>((a, b) -> {
+			int c = a.line.substring(0, 16).compareTo(b.line.substring(0, 16));
+			return c != 0 ? c : Integer.compare(a.index, b.index);
+		});
+		File tmp = new File(outFile + ".tmp");
+		BufferedWriter bw = new BufferedWriter(new FileWriter(tmp), 1 << 16);
+		int count = 0;
+		try
+		{
+			String header = null;
+			for (int i = 0; i < parts.size(); i++)
+			{
+				Part p = new Part();
+				p.index = i;
+				p.reader = new BufferedReader(new FileReader(parts.get(i)), 1 << 16);
+				String h = p.reader.readLine();
+				if (header == null)
+					header = h;
+				if (p.next())
+					queue.add(p);
+				else
+					p.reader.close();
+			}
+			if (header != null)
+				bw.write(header + "\n");
+			String lastStamp = "";
+			while (!queue.isEmpty())
+			{
+				Part p = queue.poll();
+				String stamp = p.line.substring(0, 16);
+				if (stamp.compareTo(lastStamp) > 0)
+				{
+					bw.write(p.line + "\n");
+					lastStamp = stamp;
+					count++;
+				}
+				if (p.next())
+					queue.add(p);
+				else
+					p.reader.close();
+			}
+		}
+		finally
+		{
+			for (Part p : queue)
+				p.reader.close();
+			bw.close();
+		}
+		Files.move(tmp.toPath(), new File(outFile).toPath(), StandardCopyOption.REPLACE_EXISTING);
+		return count;
+	}
+
+	private static void deleteTree(File f)
+	{
+		File[] files = f.listFiles();
+		if (files != null)
+			for (File child : files)
+				deleteTree(child);
+		f.delete();
+	}
+}
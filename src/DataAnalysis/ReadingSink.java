@@ -0,0 +1,15 @@
+package DataAnalysis;
+
+//
+// Receives well readings one at a time, in time order.
+// Times are epoch minutes as in WellSeries; missing values are NaN.
+//
+public interface ReadingSink
+{
+	void reading(long minute, double compensated, double original, double water, double air);
+
+	// Called once before the first reading with a rough count of what is coming
+	default void expect(int readings)
+	{
+	}
+}
@@ -0,0 +1,119 @@
+package DataAnalysis;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+//
+// Output stage for the report files. Each file is a render task that starts
+// on a bounded pool as soon as it is added, so the reports are written side
+// by side and the write phase takes about as long as the largest file.
+// Render tasks must only read data that no longer changes.
+//
+public class ReportOutput
+{
+	// room for a whole report in most cases
+	static final int BUFFER = 1 << 20;
+
+	public interface Render
+	{
+		void render(ReportWriter w) throws IOException;
+	}
+
+	ExecutorService pool;
+	RunMetrics metrics;
+	ArrayList<Future<?>> pending = new ArrayList<Future<?>>();
+
+	public ReportOutput(int threads, RunMetrics metrics)
+	{
+		pool = Executors.newFixedThreadPool(threads);
+		this.metrics = metrics;
+	}
+
+	public void add(String fileName, Render render)
+	{
+		add(fileName, render, null);
+	}
+
+	// done runs once the report is complete, unless writing it failed
+	public void add(String fileName, Render render, Runnable done)
+	{
+		StageScheduler.out("Writing:" + fileName);
+		submit(() -> write(fileName, -1, render, done));
+	}
+
+	// Appends to the report from byte from on, see ReportWriter.extend
+	public void extend(String fileName, long from, Render render, Runnable done)
+	{
+		StageScheduler.out("Extending:" + fileName);
+		submit(() -> write(fileName, from, render, done));
+	}
+
+	private void submit(Runnable task)
+	{
+		Future<?> f = pool.submit(task);
+		synchronized (pending)
+		{
+			pending.add(f);
+		}
+	}
+
+	// Waits for every report added so far and stops the pool
+	public void finish()
+	{
+		try
+		{
+			int i = 0;
+			while (true)
+			{
+				Future<?> f;
+				synchronized (pending)
+				{
+					if (i == pending.size())
+						break;
+					f = pending.get(i++);
+				}
+				try
+				{
+					f.get();
+				}
+				catch (ExecutionException e)
+				{
+					e.getCause().printStackTrace();
+				}
+			}
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		finally
+		{
+			pool.shutdown();
+		}
+	}
+
+	private void write(String fileName, long from, Render render, Runnable done)
+	{
+		ReportWriter w = null;
+		try (RunMetrics.Stage m = metrics.start("write " + new File(fileName).getName()))
+		{
+			w = from < 0 ? new ReportWriter(fileName, BUFFER) : ReportWriter.extend(fileName, from, BUFFER);
+			render.render(w);
+			w.close();
+			m.records(w.lines()).bytesWritten(w.size());
+			if (done != null)
+				done.run();
+		}
+		catch (IOException | RuntimeException e)
+		{
+			if (w != null)
+				w.abort();
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,316 @@
+package DataAnalysis;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.text.DecimalFormatSymbols;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Locale;
+
+//
+// Writes the .data report files. Numbers and dates are formatted straight
+// into a reused byte buffer that is written out through a FileChannel, so a
+// line costs no Strings. The output is the same as the String.format("%.2f"),
+// Double.toString and yyyy-MM-dd HH:mm formatting the reports used before.
+// The file is written under a .tmp name and renamed over the report on
+// close(), so a crash never leaves a half-written report behind. A writer
+// made by extend() appends to the report in place instead.
+//
+public class ReportWriter implements Closeable
+{
+	static final int BUFFER = 1 << 16;
+	// %.2f values are rounded here unless they lie this close to a half cent,
+	// where the rounding depends on the decimal digits and String.format decides
+	static final double TIE_BAND = 1e-3;
+	// above this a value * 100 no longer has the precision for TIE_BAND
+	static final double FAST_LIMIT = 1e9;
+
+	Path target;
+	// null when extending the target in place
+	Path temp;
+	// length of the target an extending writer started from
+	long start;
+	FileChannel channel;
+	ByteBuffer buffer;
+	byte[] bytes;
+	int position;
+	// bytes flushed to the channel, and lines written
+	long written;
+	long lines;
+	// Double.toString digits without the String
+	StringBuilder digits = new StringBuilder(32);
+	char decimalSeparator;
+	boolean asciiDigits;
+
+	public ReportWriter(String fileName) throws IOException
+	{
+		this(fileName, BUFFER);
+	}
+
+	public ReportWriter(String fileName, int bufferSize) throws IOException
+	{
+		this(Paths.get(fileName), Paths.get(fileName + ".tmp"), bufferSize);
+		channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+	}
+
+	// Writes on at byte from of an existing report, dropping anything after
+	// it. abort() cuts the report back to from.
+	public static ReportWriter extend(String fileName, long from, int bufferSize) throws IOException
+	{
+		ReportWriter w = new ReportWriter(Paths.get(fileName), null, bufferSize);
+		w.start = from;
+		w.channel = FileChannel.open(w.target, StandardOpenOption.WRITE);
+		w.channel.truncate(from);
+		w.channel.position(from);
+		return w;
+	}
+
+	private ReportWriter(Path target, Path temp, int bufferSize)
+	{
+		this.target = target;
+		this.temp = temp;
+		bytes = new byte[bufferSize];
+		buffer = ByteBuffer.wrap(bytes);
+		// String.format follows the default format locale
+		DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance(Locale.getDefault(Locale.Category.FORMAT));
+		decimalSeparator = symbols.getDecimalSeparator();
+		asciiDigits = symbols.getZeroDigit() == '0' && decimalSeparator < 0x80;
+	}
+
+	public ReportWriter text(String s) throws IOException
+	{
+		int n = s.length();
+		for (int i = 0; i < n; i++)
+			if (s.charAt(i) >= 0x80)
+				// encoded the way FileWriter did
+				return bytes(s.getBytes(Charset.defaultCharset()));
+		ensure(n);
+		if (n > bytes.length)
+		{
+			for (int i = 0; i < n; i++)
+				put((byte) s.charAt(i));
+			return this;
+		}
+		for (int i = 0; i < n; i++)
+			bytes[position++] = (byte) s.charAt(i);
+		return this;
+	}
+
+	public ReportWriter tab() throws IOException
+	{
+		return put((byte) '\t');
+	}
+
+	public ReportWriter newLine() throws IOException
+	{
+		lines++;
+		return put((byte) '\n');
+	}
+
+	// Same as concatenating the long
+	public ReportWriter integer(long value) throws IOException
+	{
+		if (value == Long.MIN_VALUE)
+			return text(Long.toString(value));
+		if (value < 0)
+		{
+			put((byte) '-');
+			value = -value;
+		}
+		ensure(20);
+		int start = position;
+		do
+		{
+			bytes[position++] = (byte) ('0' + value % 10);
+			value /= 10;
+		}
+		while (value != 0);
+		reverse(start, position - 1);
+		return this;
+	}
+
+	// String.format("%02d", value)
+	public ReportWriter twoDigits(int value) throws IOException
+	{
+		if (value < 0 || value > 99)
+			return text(String.format("%02d", value));
+		ensure(2);
+		bytes[position++] = (byte) ('0' + value / 10);
+		bytes[position++] = (byte) ('0' + value % 10);
+		return this;
+	}
+
+	// String.format("%.2f", value)
+	public ReportWriter fixed2(double value) throws IOException
+	{
+		double magnitude = Math.abs(value);
+		if (!asciiDigits || !(magnitude < FAST_LIMIT))
+			return text(String.format("%.2f", value));
+		double scaled = magnitude * 100;
+		double fraction = scaled - Math.floor(scaled);
+		if (Math.abs(fraction - 0.5) < TIE_BAND)
+			return text(String.format("%.2f", value));
+		long cents = (long) Math.floor(scaled + 0.5);
+		// negative values keep their sign even when they round to zero
+		if (Double.doubleToRawLongBits(value) < 0)
+			put((byte) '-');
+		integer(cents / 100);
+		put((byte) decimalSeparator);
+		return twoDigits((int) (cents % 100));
+	}
+
+	// Same as concatenating the double
+	public ReportWriter decimal(double value) throws IOException
+	{
+		digits.setLength(0);
+		digits.append(value);
+		int n = digits.length();
+		ensure(n);
+		for (int i = 0; i < n; i++)
+			bytes[position++] = (byte) digits.charAt(i);
+		return this;
+	}
+
+	// yyyy-MM-dd
+	public ReportWriter date(LocalDate date) throws IOException
+	{
+		int year = date.getYear();
+		if (year < 1 || year > 9999)
+			return text(date.toString());
+		ensure(10);
+		fourDigits(year);
+		bytes[position++] = '-';
+		pair(date.getMonthValue());
+		bytes[position++] = '-';
+		pair(date.getDayOfMonth());
+		return this;
+	}
+
+	// yyyy-MM-dd HH:mm
+	public ReportWriter dateTime(LocalDateTime dateTime) throws IOException
+	{
+		date(dateTime.toLocalDate());
+		ensure(6);
+		bytes[position++] = ' ';
+		pair(dateTime.getHour());
+		bytes[position++] = ':';
+		pair(dateTime.getMinute());
+		return this;
+	}
+
+	public ReportWriter bytes(byte[] b) throws IOException
+	{
+		for (byte x : b)
+			put(x);
+		return this;
+	}
+
+	public void flush() throws IOException
+	{
+		buffer.limit(position);
+		buffer.position(0);
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		buffer.clear();
+		written += position;
+		position = 0;
+	}
+
+	public long size()
+	{
+		return written + position;
+	}
+
+	public long lines()
+	{
+		return lines;
+	}
+
+	// Completes the report by renaming the temp file over it
+	@Override
+	public void close() throws IOException
+	{
+		try
+		{
+			flush();
+		}
+		finally
+		{
+			channel.close();
+		}
+		if (temp == null)
+			return;
+		try
+		{
+			Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (AtomicMoveNotSupportedException e)
+		{
+			Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	// Drops the temp file and leaves any previous report in place
+	public void abort()
+	{
+		try
+		{
+			if (temp == null && channel.isOpen())
+				channel.truncate(start);
+			channel.close();
+			if (temp != null)
+				Files.deleteIfExists(temp);
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+		}
+	}
+
+	private ReportWriter put(byte b) throws IOException
+	{
+		ensure(1);
+		bytes[position++] = b;
+		return this;
+	}
+
+	private void ensure(int n) throws IOException
+	{
+		if (position + n > bytes.length)
+			flush();
+	}
+
+	private void fourDigits(int value)
+	{
+		bytes[position++] = (byte) ('0' + value / 1000);
+		bytes[position++] = (byte) ('0' + value / 100 % 10);
+		bytes[position++] = (byte) ('0' + value / 10 % 10);
+		bytes[position++] = (byte) ('0' + value % 10);
+	}
+
+	private void pair(int value)
+	{
+		bytes[position++] = (byte) ('0' + value / 10);
+		bytes[position++] = (byte) ('0' + value % 10);
+	}
+
+	private void reverse(int from, int to)
+	{
+		while (from < to)
+		{
+			byte b = bytes[from];
+			bytes[from++] = bytes[to];
+			bytes[to--] = b;
+		}
+	}
+}
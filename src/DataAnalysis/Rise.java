@@ -0,0 +1,10 @@
+package DataAnalysis;
+
+import java.time.LocalDateTime;
+
+public class Rise
+{
+	// start of the rise
+	public LocalDateTime date;
+	public double minutes;
+}
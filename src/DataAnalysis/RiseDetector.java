@@ -0,0 +1,164 @@
+package DataAnalysis;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+
+//
+// Finds rise events: runs of non-decreasing compensated depth that climb at
+// least minRise cm. Negative depths are skipped. A drop in depth resets the
+// base of the rise, which makes every drop a sync point for chunked scans.
+// A tracker's state can be saved and restored, so detection can resume
+// where an earlier run stopped.
+//
+public class RiseDetector implements ChunkedDetector<Rise>
+{
+	// minimum rise in cm
+	double minRise;
+
+	public RiseDetector(double minRise)
+	{
+		this.minRise = minRise;
+	}
+
+	public ArrayList<Rise> findRises(WellSeries series)
+	{
+		return scan(series, 0, series.size());
+	}
+
+	public ArrayList<Rise> findRises(WellSeries series, ForkJoinPool pool)
+	{
+		return ParallelDetection.run(this, series, pool);
+	}
+
+	// Incremental form for streamed readings
+	public Tracker tracker(Consumer<Rise> events)
+	{
+		return new Tracker(events);
+	}
+
+	@Override
+	public int syncPoint(WellSeries series, int from)
+	{
+		int previous = from - 1;
+		while (previous >= 0 && series.compensatedDepth(previous) < 0d)
+			previous--;
+		for (int i = from; i < series.size(); i++)
+		{
+			double depth = series.compensatedDepth(i);
+			if (depth < 0d)
+				continue;
+			// first usable reading, or a reading that does not continue the rise
+			if (previous < 0 || !(depth >= series.compensatedDepth(previous)))
+				return i;
+			previous = i;
+		}
+		return series.size();
+	}
+
+	@Override
+	public ArrayList<Rise> scan(WellSeries series, int from, int to)
+	{
+		ArrayList<Rise> riseTimes = new ArrayList<Rise>();
+		scan(new Tracker(riseTimes::add), series, from, to);
+		return riseTimes;
+	}
+
+	// The state a scan of the whole series ends in, from its last readings
+	public Tracker endState(WellSeries series)
+	{
+		Tracker tracker = new Tracker(rise -> {});
+		scan(tracker, series, ParallelDetection.syncPointNearEnd(this, series), series.size());
+		return tracker;
+	}
+
+	private void scan(Tracker tracker, WellSeries series, int from, int to)
+	{
+		int i = from;
+		if (from > 0)
+		{
+			// a sync point starts a new base
+			tracker.restart(series.minute(from), series.compensatedDepth(from));
+			i++;
+		}
+		for (; i < to; i++)
+			tracker.depth(series.minute(i), series.compensatedDepth(i));
+	}
+
+	//
+	// Rise detection state: the base of the current rise and the previous
+	// usable reading.
+	//
+	public class Tracker implements ReadingSink
+	{
+		Consumer<Rise> events;
+		boolean started;
+		long baseMinute;
+		double baseDepth;
+		double previousDepth;
+
+		Tracker(Consumer<Rise> events)
+		{
+			this.events = events;
+		}
+
+		@Override
+		public void reading(long minute, double compensated, double original, double water, double air)
+		{
+			depth(minute, compensated);
+		}
+
+		public void depth(long minute, double depth)
+		{
+			if (depth < 0d)
+				return;
+			if (!started)
+			{
+				restart(minute, depth);
+				return;
+			}
+			// Continued rise in depth
+			if (depth >= previousDepth)
+			{
+				if (depth - baseDepth >= minRise)
+				{
+					Rise rise = new Rise();
+					rise.date = WellSeries.toDateTime(baseMinute);
+					rise.minutes = minute - baseMinute;
+					events.accept(rise);
+					baseMinute = minute;
+					baseDepth = depth;
+				}
+				previousDepth = depth;
+			}
+			// Rise in depth stops
+			else
+				restart(minute, depth);
+		}
+
+		void restart(long minute, double depth)
+		{
+			started = true;
+			baseMinute = minute;
+			baseDepth = depth;
+			previousDepth = depth;
+		}
+
+		public byte[] save()
+		{
+			ByteBuffer b = ByteBuffer.allocate(25);
+			b.put((byte) (started ? 1 : 0)).putLong(baseMinute).putDouble(baseDepth).putDouble(previousDepth);
+			return b.array();
+		}
+
+		public void restore(byte[] state)
+		{
+			ByteBuffer b = ByteBuffer.wrap(state);
+			started = b.get() != 0;
+			baseMinute = b.getLong();
+			baseDepth = b.getDouble();
+			previousDepth = b.getDouble();
+		}
+	}
+}
@@ -0,0 +1,167 @@
+package DataAnalysis;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Locale;
+
+//
+// Wall time, CPU time, records, bytes and allocation for each stage of a run,
+// written as a JSON run report at the end so runs can be compared.
+// CPU time and allocated bytes are for the thread that timed the stage; work
+// it hands to other threads, such as the fork/join detection chunks, shows
+// in its wall time only. Figures the JVM does not support are reported as -1.
+//
+public class RunMetrics
+{
+	static ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+	Instant started = Instant.now();
+	long startNanos = System.nanoTime();
+	ArrayList<Stage> stages = new ArrayList<Stage>();
+
+	public class Stage implements AutoCloseable
+	{
+		String name;
+		String thread;
+		long startNanos;
+		long cpuStart;
+		long allocatedStart;
+		long wallNanos;
+		long cpuNanos = -1;
+		long allocated = -1;
+		long records;
+		long bytesRead;
+		long bytesWritten;
+
+		public Stage records(long n)
+		{
+			records += n;
+			return this;
+		}
+
+		public Stage bytesRead(long n)
+		{
+			bytesRead += n;
+			return this;
+		}
+
+		public Stage bytesWritten(long n)
+		{
+			bytesWritten += n;
+			return this;
+		}
+
+		@Override
+		public void close()
+		{
+			wallNanos = System.nanoTime() - startNanos;
+			if (cpuStart >= 0)
+				cpuNanos = cpuTime() - cpuStart;
+			if (allocatedStart >= 0)
+				allocated = allocatedBytes() - allocatedStart;
+			synchronized (stages)
+			{
+				stages.add(this);
+			}
+		}
+	}
+
+	// Starts timing a stage on this thread. Close it when the stage is done.
+	public Stage start(String name)
+	{
+		Stage stage = new Stage();
+		stage.name = name;
+		stage.thread = Thread.currentThread().getName();
+		stage.cpuStart = cpuTime();
+		stage.allocatedStart = allocatedBytes();
+		stage.startNanos = System.nanoTime();
+		return stage;
+	}
+
+	public String toJson()
+	{
+		StringBuilder sb = new StringBuilder();
+		sb.append("{\n");
+		sb.append("  \"started\": \"").append(started).append("\",\n");
+		sb.append("  \"wallMillis\": ").append(millis(System.nanoTime() - startNanos)).append(",\n");
+		sb.append("  \"processors\": ").append(Runtime.getRuntime().availableProcessors()).append(",\n");
+		sb.append("  \"stages\": [");
+		ArrayList<Stage> done;
+		synchronized (stages)
+		{
+			done = new ArrayList<Stage>(stages);
+		}
+		done.sort((a, b) -> Long.compare(a.startNanos, b.startNanos));
+		for (int i = 0; i < done.size(); i++)
+		{
+			Stage s = done.get(i);
+			sb.append(i == 0 ? "\n" : ",\n");
+			sb.append("    {\"name\": ").append(quote(s.name));
+			sb.append(", \"thread\": ").append(quote(s.thread));
+			sb.append(", \"startMillis\": ").append(millis(s.startNanos - startNanos));
+			sb.append(", \"wallMillis\": ").append(millis(s.wallNanos));
+			sb.append(", \"cpuMillis\": ").append(s.cpuNanos < 0 ? "-1" : millis(s.cpuNanos));
+			sb.append(", \"records\": ").append(s.records);
+			double seconds = s.wallNanos / 1e9;
+			sb.append(", \"recordsPerSecond\": ").append(seconds > 0 ? format(s.records / seconds, 1) : "0");
+			sb.append(", \"bytesRead\": ").append(s.bytesRead);
+			sb.append(", \"bytesWritten\": ").append(s.bytesWritten);
+			sb.append(", \"allocatedBytes\": ").append(s.allocated).append("}");
+		}
+		sb.append("\n  ]\n}\n");
+		return sb.toString();
+	}
+
+	public void write(String fileName) throws IOException
+	{
+		ReportWriter w = new ReportWriter(fileName);
+		w.text(toJson());
+		w.close();
+	}
+
+	private static long cpuTime()
+	{
+		if (!threads.isCurrentThreadCpuTimeSupported() || !threads.isThreadCpuTimeEnabled())
+			return -1;
+		return threads.getCurrentThreadCpuTime();
+	}
+
+	private static long allocatedBytes()
+	{
+		if (!(threads instanceof com.sun.management.ThreadMXBean))
+			return -1;
+		com.sun.management.ThreadMXBean t = (com.sun.management.ThreadMXBean) threads;
+		if (!t.isThreadAllocatedMemorySupported() || !t.isThreadAllocatedMemoryEnabled())
+			return -1;
+		return t.getCurrentThreadAllocatedBytes();
+	}
+
+	private static String millis(long nanos)
+	{
+		return format(nanos / 1e6, 3);
+	}
+
+	private static String format(double value, int decimals)
+	{
+		return String.format(Locale.ROOT, "%." + decimals + "f", value);
+	}
+
+	private static String quote(String s)
+	{
+		StringBuilder sb = new StringBuilder("\"");
+		for (int i = 0; i < s.length(); i++)
+		{
+			char c = s.charAt(i);
+			if (c == '"' || c == '\\')
+				sb.append('\\').append(c);
+			else if (c < 0x20)
+				sb.append(String.format("\\u%04x", (int) c));
+			else
+				sb.append(c);
+		}
+		return sb.append('"').toString();
+	}
+}
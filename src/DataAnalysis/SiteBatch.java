@@ -0,0 +1,96 @@
+package DataAnalysis;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+//
+// Runs the whole analysis for several site roots in one JVM. Each site gets
+// its own DataAnalysisMain, so sites share no state, and at most
+// `concurrency` sites run at once. Each site's log is printed as one block in
+// the order the sites were given. A cross-site summary with one line per
+// site and usage year is written at the end.
+//
+public class SiteBatch
+{
+	List<String> roots;
+	DataAnalysisMain[] sites;
+
+	public SiteBatch(List<String> roots)
+	{
+		this.roots = roots;
+		sites = new DataAnalysisMain[roots.size()];
+	}
+
+	public void run(int concurrency)
+	{
+		StageScheduler scheduler = new StageScheduler();
+		for (int i = 0; i < roots.size(); i++)
+		{
+			int site = i;
+			scheduler.add("site " + i, () -> {
+				StageScheduler.out("Site " + roots.get(site));
+				try
+				{
+					sites[site] = new DataAnalysisMain(roots.get(site));
+				}
+				catch (RuntimeException e)
+				{
+					// one site failing does not stop the others
+					StageScheduler.out("Site failed:" + roots.get(site) + " " + e);
+					e.printStackTrace();
+				}
+			});
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, concurrency));
+		try
+		{
+			scheduler.run(executor);
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+	}
+
+	// site, year, mean rise minutes, mean peak, usage total, rainfall total,
+	// rise events, peaks. Failed sites are listed with the word failed.
+	public void writeSummary(String fileName)
+	{
+		StageScheduler.out("Writing:" + fileName);
+		ReportWriter w = null;
+		try
+		{
+			w = new ReportWriter(fileName);
+			w.text("site\tyear\tmeanRiseMinutes\tmeanPeak\tusage\trainfall\triseEvents\tpeaks").newLine();
+			for (int i = 0; i < sites.length; i++)
+			{
+				DataAnalysisMain site = sites[i];
+				if (site == null)
+				{
+					w.text(roots.get(i)).tab().text("failed").newLine();
+					continue;
+				}
+				BucketAggregator rises = site.riseAggregation();
+				BucketAggregator peaks = site.peakAggregation();
+				BucketAggregator usage = site.usageAggregation();
+				BucketAggregator rain = site.rainfallAggregation();
+				for (int year : usage.yearsRepresented())
+				{
+					w.text(roots.get(i)).tab().integer(year).tab();
+					w.fixed2(rises.year(year).mean).tab().fixed2(peaks.year(year).mean).tab();
+					w.fixed2(usage.year(year).sum).tab().fixed2(rain.year(year).sum).tab();
+					w.integer(rises.year(year).count).tab().integer(peaks.year(year).count).newLine();
+				}
+			}
+			w.close();
+		}
+		catch (IOException e)
+		{
+			if (w != null)
+				w.abort();
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,136 @@
+package DataAnalysis;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+//
+// Runs processing stages on an executor as soon as the stages they depend on
+// have finished. Stages must be added after the stages they depend on.
+// Output from out() inside a stage is held back and printed in the order the
+// stages were added, so the log reads the same as a sequential run.
+// A scheduler run from inside another scheduler's stage prints into that
+// stage's log, so nested runs stay in one block.
+//
+public class StageScheduler
+{
+	static ThreadLocal<StringBuilder> stageLog = new ThreadLocal<StringBuilder>();
+
+	ArrayList<Stage> stages = new ArrayList<Stage>();
+	HashMap<String, Stage> byName = new HashMap<String, Stage>();
+	// stages whose log has been printed
+	int flushed;
+	// log of the stage that called run(), null at the top level
+	StringBuilder parentLog;
+
+	static class Stage
+	{
+		String name;
+		Runnable task;
+		Stage[] dependsOn;
+		CompletableFuture<Void> done;
+		StringBuilder log = new StringBuilder();
+		boolean finished;
+	}
+
+	public void add(String name, Runnable task, String... dependsOn)
+	{
+		Stage stage = new Stage();
+		stage.name = name;
+		stage.task = task;
+		stage.dependsOn = new Stage[dependsOn.length];
+		for (int i = 0; i < dependsOn.length; i++)
+		{
+			stage.dependsOn[i] = byName.get(dependsOn[i]);
+			if (stage.dependsOn[i] == null)
+				throw new IllegalArgumentException(name + " depends on unknown stage " + dependsOn[i]);
+		}
+		stages.add(stage);
+		byName.put(name, stage);
+	}
+
+	// The names that are stages of this scheduler, for stages added only
+	// when their inputs need them
+	public String[] present(String... names)
+	{
+		ArrayList<String> found = new ArrayList<String>();
+		for (String name : names)
+			if (byName.containsKey(name))
+				found.add(name);
+		return found.toArray(new String[0]);
+	}
+
+	// Blocks until every stage has run. A failed stage skips the stages that
+	// depend on it and its exception is rethrown here.
+	public void run(Executor executor)
+	{
+		parentLog = stageLog.get();
+		CompletableFuture<?>[] all = new CompletableFuture<?>[stages.size()];
+		for (int i = 0; i < stages.size(); i++)
+		{
+			Stage stage = stages.get(i);
+			CompletableFuture<?>[] deps = new CompletableFuture<?>[stage.dependsOn.length];
+			for (int j = 0; j < deps.length; j++)
+				deps[j] = stage.dependsOn[j].done;
+			stage.done = CompletableFuture.allOf(deps).handleAsync((v, ex) -> {
+				if (ex != null)
+				{
+					finish(stage);
+					throw ex instanceof CompletionException ? (CompletionException) ex : new CompletionException(ex);
+				}
+				runStage(stage);
+				return null;
+			}, executor);
+			all[i] = stage.done;
+		}
+		try
+		{
+			CompletableFuture.allOf(all).join();
+		}
+		catch (CompletionException e)
+		{
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw e;
+		}
+	}
+
+	private void runStage(Stage stage)
+	{
+		stageLog.set(stage.log);
+		try
+		{
+			stage.task.run();
+		}
+		finally
+		{
+			stageLog.remove();
+			finish(stage);
+		}
+	}
+
+	private synchronized void finish(Stage stage)
+	{
+		stage.finished = true;
+		while (flushed < stages.size() && stages.get(flushed).finished)
+		{
+			if (parentLog == null)
+				System.out.print(stages.get(flushed).log);
+			else
+				parentLog.append(stages.get(flushed).log);
+			flushed++;
+		}
+	}
+
+	// Log a line, held back if called from inside a stage
+	public static void out(String str)
+	{
+		StringBuilder log = stageLog.get();
+		if (log == null)
+			System.out.println(str);
+		else
+			log.append(str).append(System.lineSeparator());
+	}
+}
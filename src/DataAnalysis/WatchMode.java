@@ -0,0 +1,101 @@
+package DataAnalysis;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+
+//
+// Keeps one site loaded and analyses new data as it lands. The raw folders
+// and Output are watched; a burst of changes is collected until the folders
+// have been quiet for DEBOUNCE milliseconds, then new raw files are
+// preprocessed and only the stages whose inputs changed are run again.
+// The reports a run writes into Output are seen as changes too, but they are
+// not inputs, so the check that follows finds nothing to do.
+//
+public class WatchMode
+{
+	static long DEBOUNCE = 2000;
+	static final String[] RAW = { "WellData", "usage", "WeatherData" };
+
+	String rootDir;
+	DataAnalysisMain site;
+	// keys of the raw folders, the others are Output
+	HashSet<WatchKey> rawKeys = new HashSet<WatchKey>();
+
+	// rootDir null reads it from DataAnalysis.cfg
+	public WatchMode(String rootDir)
+	{
+		this.rootDir = rootDir;
+	}
+
+	// Runs a full analysis, then watches until interrupted
+	public void run()
+	{
+		site = new DataAnalysisMain(rootDir);
+		rootDir = site.rootDir;
+		try (WatchService watcher = FileSystems.getDefault().newWatchService())
+		{
+			for (String dir : RAW)
+				register(watcher, dir, true);
+			register(watcher, "Output", false);
+			StageScheduler.out("Watching:" + rootDir);
+			// a failed refresh leaves its raw files to be preprocessed next time
+			boolean raw = false;
+			while (true)
+			{
+				raw |= collect(watcher.take());
+				WatchKey key;
+				while ((key = watcher.poll(DEBOUNCE, TimeUnit.MILLISECONDS)) != null)
+					raw |= collect(key);
+				try
+				{
+					site.refresh(raw);
+					raw = false;
+				}
+				catch (RuntimeException e)
+				{
+					// a half-copied or malformed file; keep watching for the next change
+					StageScheduler.out("Refresh failed:" + e);
+					e.printStackTrace();
+				}
+			}
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+		}
+	}
+
+	private void register(WatchService watcher, String dir, boolean raw) throws IOException
+	{
+		File folder = new File(rootDir, dir);
+		if (!folder.isDirectory())
+			return;
+		WatchKey key = folder.toPath().register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+				StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+		if (raw)
+			rawKeys.add(key);
+	}
+
+	// True when the events were in a raw folder. Lost events count as raw,
+	// since the manifest makes preprocessing cheap when nothing is new.
+	private boolean collect(WatchKey key)
+	{
+		boolean raw = rawKeys.contains(key);
+		for (WatchEvent<?> event : key.pollEvents())
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW)
+				raw = true;
+		key.reset();
+		return raw;
+	}
+}
@@ -0,0 +1,401 @@
+package DataAnalysis;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.DayOfWeek;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+
+//
+// Compensated depth downsampled to 15 minute, hourly, daily and weekly
+// buckets, each holding the count, min, max, mean, first and last of its
+// readings. Summaries and charts over years of minute readings then go
+// through a few thousand buckets instead of millions of points.
+// Weeks start on the first day of the report week numbering. Missing
+// depths are left out of the buckets.
+//
+// Each level is kept next to WellReadings.data as
+// WellReadings.<level>.pyramid and is brought up to date from the readings
+// appended since it was saved. Only the buckets from the first one that
+// changed on are written again.
+//
+// Level file layout, big endian:
+//   int magic, int version, int width, long origin, int buckets (-1 while
+//   being rewritten), int readings, readings file length, tail length and
+//   tail padded to FileMark.TAIL bytes
+//   per bucket: long start minute, int count, double min, max, sum, first, last
+//
+public class WellPyramid implements ReadingSink
+{
+	static final int MAGIC = 0x4B4E5059; // "KNPY"
+	static final int VERSION = 1;
+	static final int HEADER = 4 + 4 + 4 + 8 + 4 + 4 + 8 + 4 + FileMark.TAIL;
+	static final int RECORD = 8 + 4 + 5 * 8;
+	static final String[] NAMES = { "15min", "hour", "day", "week" };
+	static final int[] WIDTHS = { 15, 60, 1440, 7 * 1440 };
+
+	// finest first
+	Level[] levels;
+	// the readings file as far as it has been read, and the readings in that
+	FileMark source;
+	int readings;
+
+	public WellPyramid(DayOfWeek weekStart)
+	{
+		// minute 0 is Thursday 1970-01-01
+		long weekOrigin = (weekStart.getValue() - DayOfWeek.THURSDAY.getValue() + 7) % 7 * 1440L;
+		levels = new Level[NAMES.length];
+		for (int i = 0; i < levels.length; i++)
+			levels[i] = new Level(NAMES[i], WIDTHS[i], i == levels.length - 1 ? weekOrigin : 0);
+	}
+
+	@Override
+	public void reading(long minute, double compensated, double original, double water, double air)
+	{
+		readings++;
+		if (Double.isNaN(compensated))
+			return;
+		for (Level level : levels)
+			level.add(minute, compensated);
+	}
+
+	// The coarsest level with buckets no wider than resolution minutes, or
+	// the finest level when resolution is finer than that
+	public Level level(int resolution)
+	{
+		for (int i = levels.length - 1; i > 0; i--)
+			if (levels[i].width <= resolution)
+				return levels[i];
+		return levels[0];
+	}
+
+	// Depth summary from start to end inclusive, at the coarsest level that
+	// meets resolution. Buckets cut by start or end count in full, so the
+	// edges are as exact as the resolution asked for.
+	public Summary summary(LocalDateTime start, LocalDateTime end, int resolution)
+	{
+		return level(resolution).summary(WellSeries.toMinute(start), WellSeries.toMinute(end));
+	}
+
+	//
+	// One resolution, as columns in time order
+	//
+	public static class Level
+	{
+		public final String name;
+		// bucket width in minutes, buckets start at origin plus a multiple of it
+		public final int width;
+		final long origin;
+		int size;
+		long[] start = new long[16];
+		int[] count = new int[16];
+		double[] min = new double[16];
+		double[] max = new double[16];
+		double[] sum = new double[16];
+		double[] first = new double[16];
+		double[] last = new double[16];
+		// buckets before this one are the same as in the level file
+		int clean;
+		// what the level file said it covers, when loaded
+		int savedReadings;
+		FileMark savedSource;
+
+		Level(String name, int width, long origin)
+		{
+			this.name = name;
+			this.width = width;
+			this.origin = origin;
+		}
+
+		void add(long minute, double value)
+		{
+			long bucketStart = origin + Math.floorDiv(minute - origin, width) * width;
+			int i = size - 1;
+			if (size == 0 || bucketStart > start[i])
+				i = insert(size, bucketStart);
+			else if (bucketStart < start[i])
+			{
+				// only readings out of time order land here
+				i = lowerBound(bucketStart);
+				if (start[i] != bucketStart)
+					insert(i, bucketStart);
+			}
+			if (count[i]++ == 0)
+			{
+				min[i] = value;
+				max[i] = value;
+				first[i] = value;
+			}
+			else
+			{
+				min[i] = Math.min(min[i], value);
+				max[i] = Math.max(max[i], value);
+			}
+			sum[i] += value;
+			last[i] = value;
+			clean = Math.min(clean, i);
+		}
+
+		private int insert(int i, long bucketStart)
+		{
+			if (size == start.length)
+				grow(size * 2);
+			int moved = size - i;
+			System.arraycopy(start, i, start, i + 1, moved);
+			System.arraycopy(count, i, count, i + 1, moved);
+			System.arraycopy(min, i, min, i + 1, moved);
+			System.arraycopy(max, i, max, i + 1, moved);
+			System.arraycopy(sum, i, sum, i + 1, moved);
+			System.arraycopy(first, i, first, i + 1, moved);
+			System.arraycopy(last, i, last, i + 1, moved);
+			start[i] = bucketStart;
+			count[i] = 0;
+			sum[i] = 0;
+			size++;
+			return i;
+		}
+
+		private void grow(int capacity)
+		{
+			start = Arrays.copyOf(start, capacity);
+			count = Arrays.copyOf(count, capacity);
+			min = Arrays.copyOf(min, capacity);
+			max = Arrays.copyOf(max, capacity);
+			sum = Arrays.copyOf(sum, capacity);
+			first = Arrays.copyOf(first, capacity);
+			last = Arrays.copyOf(last, capacity);
+		}
+
+		public int size()
+		{
+			return size;
+		}
+
+		public long startMinute(int i)
+		{
+			return start[i];
+		}
+
+		public LocalDateTime start(int i)
+		{
+			return WellSeries.toDateTime(start[i]);
+		}
+
+		public int count(int i)
+		{
+			return count[i];
+		}
+
+		public double min(int i)
+		{
+			return min[i];
+		}
+
+		public double max(int i)
+		{
+			return max[i];
+		}
+
+		public double mean(int i)
+		{
+			return sum[i] / count[i];
+		}
+
+		public double first(int i)
+		{
+			return first[i];
+		}
+
+		public double last(int i)
+		{
+			return last[i];
+		}
+
+		// Index of the first bucket starting at or after minute
+		public int lowerBound(long minute)
+		{
+			int lo = 0;
+			int hi = size;
+			while (lo < hi)
+			{
+				int mid = (lo + hi) >>> 1;
+				if (start[mid] < minute)
+					lo = mid + 1;
+				else
+					hi = mid;
+			}
+			return lo;
+		}
+
+		// The buckets that overlap minutes lo to hi
+		public Summary summary(long lo, long hi)
+		{
+			Summary s = new Summary();
+			int from = lowerBound(lo - width + 1);
+			int to = lowerBound(hi + 1);
+			s.buckets = to - from;
+			if (s.buckets <= 0)
+			{
+				s.buckets = 0;
+				s.mean = Double.NaN;
+				return s;
+			}
+			for (int i = from; i < to; i++)
+				s.count += count[i];
+			s.min = Kernels.min(min, from, to);
+			s.max = Kernels.max(max, from, to);
+			s.mean = Kernels.sum(sum, from, to) / s.count;
+			s.first = first[from];
+			s.last = last[to - 1];
+			s.start = start(from);
+			s.end = WellSeries.toDateTime(start[to - 1] + width);
+			return s;
+		}
+
+		private ByteBuffer header(int buckets, int readings, FileMark source)
+		{
+			ByteBuffer b = ByteBuffer.allocate(HEADER);
+			b.putInt(MAGIC).putInt(VERSION).putInt(width).putLong(origin).putInt(buckets).putInt(readings);
+			b.putLong(source.length).putInt(source.tail.length).put(source.tail);
+			b.position(HEADER);
+			b.flip();
+			return b;
+		}
+
+		// Writes buckets from clean on and the header, into a copy of the
+		// whole level when nothing of it is on disk yet
+		void save(File file, int readings, FileMark source) throws IOException
+		{
+			if (!file.exists())
+				clean = 0;
+			File target = clean > 0 ? file : new File(file.getPath() + ".tmp");
+			try (FileChannel fc = FileChannel.open(target.toPath(), StandardOpenOption.CREATE,
+					StandardOpenOption.WRITE))
+			{
+				// a level caught half written reads as damaged
+				fc.write(header(-1, readings, source), 0);
+				ByteBuffer b = ByteBuffer.allocate(RECORD * 1024);
+				long position = HEADER + (long) clean * RECORD;
+				for (int i = clean; i < size; i++)
+				{
+					b.putLong(start[i]).putInt(count[i]).putDouble(min[i]).putDouble(max[i]).putDouble(sum[i]);
+					b.putDouble(first[i]).putDouble(last[i]);
+					if (!b.hasRemaining() || i == size - 1)
+					{
+						b.flip();
+						while (b.hasRemaining())
+							position += fc.write(b, position);
+						b.clear();
+					}
+				}
+				fc.truncate(HEADER + (long) size * RECORD);
+				fc.write(header(size, readings, source), 0);
+			}
+			if (target != file)
+				Files.move(target.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			clean = size;
+		}
+
+		// Reads the level file, false if it is damaged or made with other settings
+		boolean load(File file, File source) throws IOException
+		{
+			try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16)))
+			{
+				if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readInt() != width
+						|| in.readLong() != origin)
+					return false;
+				int buckets = in.readInt();
+				savedReadings = in.readInt();
+				if (buckets < 0)
+					return false;
+				savedSource = FileMark.read(in, source);
+				in.skipBytes(FileMark.TAIL - savedSource.tail.length);
+				grow(Math.max(buckets, 16));
+				for (int i = 0; i < buckets; i++)
+				{
+					start[i] = in.readLong();
+					count[i] = in.readInt();
+					min[i] = in.readDouble();
+					max[i] = in.readDouble();
+					sum[i] = in.readDouble();
+					first[i] = in.readDouble();
+					last[i] = in.readDouble();
+				}
+				size = buckets;
+				clean = buckets;
+				return true;
+			}
+		}
+	}
+
+	//
+	// Depth over a range of buckets
+	//
+	public static class Summary
+	{
+		// readings and buckets summarised
+		public int count;
+		public int buckets;
+		public double min = Double.POSITIVE_INFINITY;
+		public double max = Double.NEGATIVE_INFINITY;
+		public double mean;
+		public double first = Double.NaN;
+		public double last = Double.NaN;
+		// the time the buckets cover, null if there are none
+		public LocalDateTime start;
+		public LocalDateTime end;
+	}
+
+	// WellReadings.data -> WellReadings.<level>.pyramid in the same directory
+	public static File fileFor(String dataFile, String level)
+	{
+		String name = dataFile;
+		int dot = name.lastIndexOf('.');
+		if (dot > Math.max(name.lastIndexOf('/'), name.lastIndexOf('\\')))
+			name = name.substring(0, dot);
+		return new File(name + "." + level + ".pyramid");
+	}
+
+	// The levels kept for dataFile, or null if one is missing or damaged,
+	// they disagree, or dataFile was changed other than by appending
+	public static WellPyramid load(String dataFile, DayOfWeek weekStart)
+	{
+		WellPyramid pyramid = new WellPyramid(weekStart);
+		try
+		{
+			for (Level level : pyramid.levels)
+			{
+				File file = fileFor(dataFile, level.name);
+				if (!file.exists() || !level.load(file, new File(dataFile)))
+					return null;
+				if (pyramid.source == null)
+				{
+					pyramid.source = level.savedSource;
+					pyramid.readings = level.savedReadings;
+				}
+				else if (pyramid.source.length != level.savedSource.length || pyramid.readings != level.savedReadings)
+					return null;
+			}
+			return pyramid.source.onlyAppended() ? pyramid : null;
+		}
+		catch (IOException e)
+		{
+			// rebuilt from the readings
+			return null;
+		}
+	}
+
+	public void save(String dataFile) throws IOException
+	{
+		for (Level level : levels)
+			level.save(fileFor(dataFile, level.name), readings, source);
+	}
+}
@@ -0,0 +1,235 @@
+package DataAnalysis;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+//
+// Reads WellReadings.data straight from a memory mapped file into a WellSeries,
+// or streams the readings to any ReadingSink.
+// Lines are "yyyy-MM-dd HH:mm<tab>compensated<tab>original<tab>water<tab>air",
+// after one header line. Fields are parsed from the bytes without building
+// Strings; only unusual numbers fall back to Double.parseDouble.
+//
+public class WellReadingsReader
+{
+	// map at most this much at once, well under the 2GB buffer limit
+	static final long WINDOW = 1L << 30;
+	static final double[] POW10 = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13,
+			1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+	MappedByteBuffer buf;
+	// position just past the last parsed field
+	int pos;
+	// day cache, consecutive readings share a date
+	int lastDateKey = -1;
+	long lastEpochDay;
+
+	// Readings between start and end inclusive, or all of them when start is null
+	public static WellSeries read(String fileName, LocalDateTime start, LocalDateTime end) throws IOException
+	{
+		WellSeries series = new WellSeries();
+		stream(fileName, start, end, series);
+		series.trim();
+		return series;
+	}
+
+	// Pass the readings between start and end to sink without keeping them
+	public static void stream(String fileName, LocalDateTime start, LocalDateTime end, ReadingSink sink)
+			throws IOException
+	{
+		long lo = start == null ? Long.MIN_VALUE : WellSeries.toMinute(start);
+		long hi = end == null ? Long.MAX_VALUE : WellSeries.toMinute(end);
+		new WellReadingsReader().readFile(fileName, 0, lo, hi, sink);
+	}
+
+	// Pass the readings from byte offset from on, which must be 0 or the
+	// start of a line after the header, such as the old length of an appended
+	// file. Returns the length of the file as read.
+	public static long streamFrom(String fileName, long from, ReadingSink sink) throws IOException
+	{
+		return new WellReadingsReader().readFile(fileName, from, Long.MIN_VALUE, Long.MAX_VALUE, sink);
+	}
+
+	long readFile(String fileName, long from, long lo, long hi, ReadingSink sink) throws IOException
+	{
+		try (FileChannel fc = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ))
+		{
+			long fileSize = fc.size();
+			boolean first = true;
+			long offset = from;
+			boolean header = from == 0;
+			while (offset < fileSize)
+			{
+				long length = Math.min(WINDOW, fileSize - offset);
+				boolean lastWindow = offset + length == fileSize;
+				buf = fc.map(FileChannel.MapMode.READ_ONLY, offset, length);
+				int limit = (int) length;
+				int lineStart = 0;
+				while (lineStart < limit)
+				{
+					int lineEnd = indexOfNewline(lineStart, limit);
+					// a line cut by the window end is read again from the next window
+					if (lineEnd == limit && !lastWindow)
+						break;
+					int next = lineEnd + 1;
+					if (lineEnd > lineStart && buf.get(lineEnd - 1) == '\r')
+						lineEnd--;
+					if (header)
+						header = false;
+					else if (lineEnd > lineStart)
+					{
+						// estimate the count from the first reading's line length
+						if (first)
+						{
+							sink.expect((int) Math.min((fileSize - from) / (next - lineStart) + 16, Integer.MAX_VALUE - 16));
+							first = false;
+						}
+						parseLine(sink, lineStart, lineEnd, lo, hi);
+					}
+					lineStart = next;
+				}
+				if (lineStart == 0)
+					throw new IOException(fileName + ": line longer than " + WINDOW + " bytes");
+				offset += lineStart;
+			}
+			return fileSize;
+		}
+		finally
+		{
+			buf = null;
+		}
+	}
+
+	private int indexOfNewline(int from, int limit)
+	{
+		for (int i = from; i < limit; i++)
+		{
+			if (buf.get(i) == '\n')
+				return i;
+		}
+		return limit;
+	}
+
+	private void parseLine(ReadingSink sink, int from, int to, long lo, long hi)
+	{
+		long minute = parseMinute(from);
+		if (minute < lo || minute > hi)
+			return;
+		pos = from + 16;
+		double compensated = parseField(to, false);
+		double original = parseField(to, false);
+		double water = parseField(to, false);
+		double air = parseField(to, true);
+		sink.reading(minute, compensated, original, water, air);
+	}
+
+	// yyyy-MM-dd HH:mm at from
+	private long parseMinute(int from)
+	{
+		int year = digits(from, 4);
+		int month = digits(from + 5, 2);
+		int day = digits(from + 8, 2);
+		int dateKey = (year * 100 + month) * 100 + day;
+		if (dateKey != lastDateKey)
+		{
+			lastEpochDay = LocalDate.of(year, month, day).toEpochDay();
+			lastDateKey = dateKey;
+		}
+		return lastEpochDay * 1440 + digits(from + 11, 2) * 60 + digits(from + 14, 2);
+	}
+
+	private int digits(int from, int count)
+	{
+		int v = 0;
+		for (int i = from; i < from + count; i++)
+		{
+			int c = buf.get(i) - '0';
+			if (c < 0 || c > 9)
+				throw new NumberFormatException("Bad timestamp digit at byte " + i);
+			v = v * 10 + c;
+		}
+		return v;
+	}
+
+	// Parse the tab separated field after pos. Air temp may be blank or text,
+	// which reads as NaN; the other columns must be numbers.
+	private double parseField(int to, boolean lenient)
+	{
+		if (pos < to && buf.get(pos) == '\t')
+			pos++;
+		int from = pos;
+		int end = from;
+		while (end < to && buf.get(end) != '\t')
+			end++;
+		pos = end;
+		double v = parseDecimal(from, end);
+		if (!Double.isNaN(v))
+			return v;
+		String text = new String(bytes(from, end), StandardCharsets.US_ASCII);
+		try
+		{
+			return Double.parseDouble(text);
+		}
+		catch (NumberFormatException e)
+		{
+			if (lenient)
+				return Double.NaN;
+			throw e;
+		}
+	}
+
+	// Plain decimals such as -12.345 are exact when the digits fit in a double,
+	// since both the digits and the power of ten are then exact. Anything else
+	// returns NaN so the caller can fall back to Double.parseDouble.
+	private double parseDecimal(int from, int end)
+	{
+		int i = from;
+		boolean negative = false;
+		if (i < end && (buf.get(i) == '-' || buf.get(i) == '+'))
+		{
+			negative = buf.get(i) == '-';
+			i++;
+		}
+		long mantissa = 0;
+		boolean sawDigit = false;
+		int digitCount = 0;
+		int scale = 0;
+		boolean point = false;
+		for (; i < end; i++)
+		{
+			int c = buf.get(i);
+			if (c == '.' && !point)
+			{
+				point = true;
+				continue;
+			}
+			c -= '0';
+			if (c < 0 || c > 9)
+				return Double.NaN;
+			mantissa = mantissa * 10 + c;
+			sawDigit = true;
+			if (point)
+				scale++;
+			if (mantissa != 0 && ++digitCount > 15)
+				return Double.NaN;
+		}
+		if (!sawDigit || scale >= POW10.length)
+			return Double.NaN;
+		double v = mantissa / POW10[scale];
+		return negative ? -v : v;
+	}
+
+	private byte[] bytes(int from, int end)
+	{
+		byte[] out = new byte[end - from];
+		for (int i = from; i < end; i++)
+			out[i - from] = buf.get(i);
+		return out;
+	}
+}
@@ -0,0 +1,241 @@
+package DataAnalysis;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+//
+// Well readings held as primitive columns, one entry per reading in time order.
+// Times are minutes since 1970-01-01 00:00 (local logger time, no zone).
+// Missing values are NaN.
+// A range of a sorted series is a read-only view sharing the same arrays.
+// MappedWellSeries keeps the columns in a file instead; code outside this
+// class goes through the accessors so it works on either.
+//
+public class WellSeries implements ReadingSink
+{
+	long[] minutes;
+	double[] compensatedDepth;
+	double[] originalDepth;
+	double[] waterTemp;
+	double[] airTemp;
+	// first entry of this series in the arrays, non-zero only for views
+	int offset;
+	int size;
+	boolean view;
+	// 0 = not checked yet, 1 = times ascending, -1 = out of order
+	int sortedState;
+
+	public WellSeries()
+	{
+		this(1024);
+	}
+
+	public WellSeries(int capacity)
+	{
+		capacity = Math.max(capacity, 16);
+		minutes = new long[capacity];
+		compensatedDepth = new double[capacity];
+		originalDepth = new double[capacity];
+		waterTemp = new double[capacity];
+		airTemp = new double[capacity];
+	}
+
+	// View of source entries from to to-1
+	private WellSeries(WellSeries source, int from, int to)
+	{
+		minutes = source.minutes;
+		compensatedDepth = source.compensatedDepth;
+		originalDepth = source.originalDepth;
+		waterTemp = source.waterTemp;
+		airTemp = source.airTemp;
+		offset = source.offset + from;
+		size = to - from;
+		view = true;
+		sortedState = 1;
+	}
+
+	public void add(long minute, double compensated, double original, double water, double air)
+	{
+		if (view)
+			throw new UnsupportedOperationException("WellSeries range views are read-only");
+		if (size > 0 && minute < minutes[size - 1])
+			sortedState = -1;
+		if (size == minutes.length)
+			grow(Math.max(16, size * 2));
+		minutes[size] = minute;
+		compensatedDepth[size] = compensated;
+		originalDepth[size] = original;
+		waterTemp[size] = water;
+		airTemp[size] = air;
+		size++;
+	}
+
+	@Override
+	public void reading(long minute, double compensated, double original, double water, double air)
+	{
+		add(minute, compensated, original, water, air);
+	}
+
+	@Override
+	public void expect(int readings)
+	{
+		if (!view && readings > minutes.length)
+			grow(readings);
+	}
+
+	public void add(LocalDateTime dateTime, double compensated, double original, double water, double air)
+	{
+		add(toMinute(dateTime), compensated, original, water, air);
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	public long minute(int i)
+	{
+		return minutes[offset + i];
+	}
+
+	public LocalDateTime dateTime(int i)
+	{
+		return toDateTime(minute(i));
+	}
+
+	public double compensatedDepth(int i)
+	{
+		return compensatedDepth[offset + i];
+	}
+
+	public double originalDepth(int i)
+	{
+		return originalDepth[offset + i];
+	}
+
+	public double waterTemp(int i)
+	{
+		return waterTemp[offset + i];
+	}
+
+	public double airTemp(int i)
+	{
+		return airTemp[offset + i];
+	}
+
+	// Readings from start to end inclusive
+	public WellSeries subset(LocalDateTime start, LocalDateTime end)
+	{
+		return range(toMinute(start), toMinute(end));
+	}
+
+	// Readings from minute lo to hi inclusive. On a sorted series this is a
+	// binary search and a view on the same arrays, otherwise a filtered copy.
+	public WellSeries range(long lo, long hi)
+	{
+		if (!isSorted())
+			return filter(lo, hi);
+		int from = lowerBound(lo);
+		int to = lowerBound(hi + 1);
+		return view(from, Math.max(to, from));
+	}
+
+	// Read-only view of entries from to to-1
+	WellSeries view(int from, int to)
+	{
+		return new WellSeries(this, from, to);
+	}
+
+	// Index of the first reading at or after minute, size() if there is none.
+	// The series must be sorted.
+	public int lowerBound(long minute)
+	{
+		int lo = 0;
+		int hi = size;
+		while (lo < hi)
+		{
+			int mid = (lo + hi) >>> 1;
+			if (minute(mid) < minute)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	public boolean isSorted()
+	{
+		if (sortedState == 0)
+		{
+			sortedState = 1;
+			for (int i = 1; i < size; i++)
+			{
+				if (minute(i) < minute(i - 1))
+				{
+					sortedState = -1;
+					break;
+				}
+			}
+		}
+		return sortedState > 0;
+	}
+
+	private WellSeries filter(long lo, long hi)
+	{
+		WellSeries out = new WellSeries();
+		for (int i = 0; i < size; i++)
+		{
+			long minute = minute(i);
+			if (minute < lo || minute > hi)
+				continue;
+			out.add(minute, compensatedDepth(i), originalDepth(i), waterTemp(i), airTemp(i));
+		}
+		out.trim();
+		return out;
+	}
+
+	// Release unused capacity once loading is finished
+	public void trim()
+	{
+		if (!view && size < minutes.length)
+			grow(size);
+	}
+
+	// Boxed copy for code that still works on WellPointNew
+	public ArrayList<WellPointNew> toPoints()
+	{
+		ArrayList<WellPointNew> points = new ArrayList<WellPointNew>(size);
+		for (int i = 0; i < size; i++)
+		{
+			WellPointNew wp = new WellPointNew();
+			wp.dateTime = dateTime(i);
+			wp.compensatedDepth = compensatedDepth(i);
+			wp.originalDepth = originalDepth(i);
+			wp.waterTemp = waterTemp(i);
+			wp.airTemp = airTemp(i);
+			points.add(wp);
+		}
+		return points;
+	}
+
+	private void grow(int capacity)
+	{
+		minutes = Arrays.copyOf(minutes, capacity);
+		compensatedDepth = Arrays.copyOf(compensatedDepth, capacity);
+		originalDepth = Arrays.copyOf(originalDepth, capacity);
+		waterTemp = Arrays.copyOf(waterTemp, capacity);
+		airTemp = Arrays.copyOf(airTemp, capacity);
+	}
+
+	public static long toMinute(LocalDateTime dateTime)
+	{
+		return Math.floorDiv(dateTime.toEpochSecond(ZoneOffset.UTC), 60);
+	}
+
+	public static LocalDateTime toDateTime(long minute)
+	{
+		return LocalDateTime.ofEpochSecond(minute * 60, 0, ZoneOffset.UTC);
+	}
+}
@@ -0,0 +1,188 @@
+package DataAnalysis;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+//
+// Binary copy of a WellSeries kept next to WellReadings.data so later runs
+// can skip parsing the text. The cache records the length and modified time
+// of the text file it was built from and is only used while both match.
+//
+// Layout, big endian:
+//   int magic, int version, long source length, long source modified, int count
+//   times: first minute as a long, then zig-zag varint deltas
+//   compensated, original, water and air temp columns, each value XOR'd with
+//   the previous one and stored as a control byte plus the non-zero bytes
+//
+public class WellSeriesCache
+{
+	static final int MAGIC = 0x4B4E5753; // "KNWS"
+	static final int VERSION = 1;
+	static final int HEADER = 4 + 4 + 8 + 8 + 4;
+
+	// WellReadings.data -> WellReadings.bin in the same directory
+	public static File cacheFileFor(String dataFile)
+	{
+		String name = dataFile;
+		int dot = name.lastIndexOf('.');
+		if (dot > Math.max(name.lastIndexOf('/'), name.lastIndexOf('\\')))
+			name = name.substring(0, dot);
+		return new File(name + ".bin");
+	}
+
+	// Returns null if the cache is missing, from another version, stale or
+	// damaged
+	public static WellSeries load(File cacheFile, File source) throws IOException
+	{
+		if (!cacheFile.exists() || !source.exists())
+			return null;
+		try (FileChannel fc = FileChannel.open(cacheFile.toPath(), StandardOpenOption.READ))
+		{
+			if (fc.size() < 32)
+				return null;
+			// the header is read rather than mapped, so a stale cache is never
+			// left mapped: Windows will not replace a file that is
+			ByteBuffer header = ByteBuffer.allocate(HEADER);
+			while (header.hasRemaining())
+				if (fc.read(header) < 0)
+					return null;
+			header.flip();
+			if (header.getInt() != MAGIC || header.getInt() != VERSION)
+				return null;
+			if (header.getLong() != source.length() || header.getLong() != source.lastModified())
+				return null;
+			int count = header.getInt();
+			// every reading takes at least a byte per column
+			if (count < 0 || count > fc.size() - HEADER)
+				return null;
+			MappedByteBuffer buf = fc.map(FileChannel.MapMode.READ_ONLY, HEADER, fc.size() - HEADER);
+			WellSeries series = new WellSeries(count);
+			series.size = count;
+			long minute = count > 0 ? buf.getLong() : 0;
+			for (int i = 0; i < count; i++)
+			{
+				if (i > 0)
+					minute += unzigzag(readVarLong(buf));
+				series.minutes[i] = minute;
+			}
+			readColumn(buf, series.compensatedDepth, count);
+			readColumn(buf, series.originalDepth, count);
+			readColumn(buf, series.waterTemp, count);
+			readColumn(buf, series.airTemp, count);
+			return series;
+		}
+		catch (BufferUnderflowException | IndexOutOfBoundsException e)
+		{
+			// truncated or corrupt, the text is parsed again
+			return null;
+		}
+	}
+
+	public static void write(WellSeries series, File cacheFile, File source) throws IOException
+	{
+		File tmp = new File(cacheFile.getPath() + ".tmp");
+		try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16)))
+		{
+			dos.writeInt(MAGIC);
+			dos.writeInt(VERSION);
+			dos.writeLong(source.length());
+			dos.writeLong(source.lastModified());
+			int count = series.size();
+			dos.writeInt(count);
+			if (count > 0)
+				dos.writeLong(series.minute(0));
+			for (int i = 1; i < count; i++)
+				writeVarLong(dos, zigzag(series.minute(i) - series.minute(i - 1)));
+			writeColumn(dos, series.compensatedDepth, series.offset, count);
+			writeColumn(dos, series.originalDepth, series.offset, count);
+			writeColumn(dos, series.waterTemp, series.offset, count);
+			writeColumn(dos, series.airTemp, series.offset, count);
+		}
+		Files.move(tmp.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	// Control byte: high nibble = leading zero bytes, low nibble = trailing zero bytes
+	private static void writeColumn(DataOutputStream dos, double[] column, int offset, int count) throws IOException
+	{
+		long previous = 0;
+		for (int i = offset; i < offset + count; i++)
+		{
+			long bits = Double.doubleToRawLongBits(column[i]);
+			long xor = bits ^ previous;
+			previous = bits;
+			if (xor == 0)
+			{
+				dos.writeByte(0x80);
+				continue;
+			}
+			int lead = Long.numberOfLeadingZeros(xor) >>> 3;
+			int trail = Long.numberOfTrailingZeros(xor) >>> 3;
+			dos.writeByte((lead << 4) | trail);
+			for (int b = 7 - lead; b >= trail; b--)
+				dos.writeByte((int) (xor >>> (b * 8)));
+		}
+	}
+
+	private static void readColumn(MappedByteBuffer buf, double[] column, int count)
+	{
+		long previous = 0;
+		for (int i = 0; i < count; i++)
+		{
+			int control = buf.get() & 0xFF;
+			long xor = 0;
+			if (control != 0x80)
+			{
+				int lead = control >>> 4;
+				int trail = control & 0x0F;
+				for (int b = 7 - lead; b >= trail; b--)
+					xor |= (buf.get() & 0xFFL) << (b * 8);
+			}
+			previous ^= xor;
+			column[i] = Double.longBitsToDouble(previous);
+		}
+	}
+
+	private static long zigzag(long v)
+	{
+		return (v << 1) ^ (v >> 63);
+	}
+
+	private static long unzigzag(long v)
+	{
+		return (v >>> 1) ^ -(v & 1);
+	}
+
+	private static void writeVarLong(DataOutputStream dos, long v) throws IOException
+	{
+		while ((v & ~0x7FL) != 0)
+		{
+			dos.writeByte((int) ((v & 0x7F) | 0x80));
+			v >>>= 7;
+		}
+		dos.writeByte((int) v);
+	}
+
+	private static long readVarLong(MappedByteBuffer buf)
+	{
+		long v = 0;
+		int shift = 0;
+		while (true)
+		{
+			byte b = buf.get();
+			v |= (long) (b & 0x7F) << shift;
+			if (b >= 0)
+				return v;
+			shift += 7;
+		}
+	}
+}
@@ -0,0 +1,68 @@
+package DataAnalysis;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+//
+// Kernels with the jdk.incubator.vector API, a whole vector of values per
+// step at the widest size the CPU has. The loops finish the few values past
+// the last whole vector one at a time. Kernels loads this class by name, so
+// it is only compiled and run with --add-modules jdk.incubator.vector.
+// A value is NaN where it does not equal itself.
+//
+class VectorKernels implements Kernels.Impl
+{
+	static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+	@Override
+	public double sum(double[] a, int from, int to)
+	{
+		DoubleVector acc = DoubleVector.zero(SPECIES);
+		int i = from;
+		for (int bound = from + SPECIES.loopBound(Math.max(to - from, 0)); i < bound; i += SPECIES.length())
+		{
+			DoubleVector v = DoubleVector.fromArray(SPECIES, a, i);
+			acc = acc.add(v, v.compare(VectorOperators.EQ, v));
+		}
+		double sum = acc.reduceLanes(VectorOperators.ADD);
+		for (; i < to; i++)
+			if (a[i] == a[i])
+				sum += a[i];
+		return sum;
+	}
+
+	@Override
+	public double min(double[] a, int from, int to)
+	{
+		DoubleVector acc = DoubleVector.broadcast(SPECIES, Double.POSITIVE_INFINITY);
+		int i = from;
+		for (int bound = from + SPECIES.loopBound(Math.max(to - from, 0)); i < bound; i += SPECIES.length())
+		{
+			DoubleVector v = DoubleVector.fromArray(SPECIES, a, i);
+			acc = acc.lanewise(VectorOperators.MIN, v, v.compare(VectorOperators.EQ, v));
+		}
+		double min = acc.reduceLanes(VectorOperators.MIN);
+		for (; i < to; i++)
+			if (a[i] < min)
+				min = a[i];
+		return min;
+	}
+
+	@Override
+	public double max(double[] a, int from, int to)
+	{
+		DoubleVector acc = DoubleVector.broadcast(SPECIES, Double.NEGATIVE_INFINITY);
+		int i = from;
+		for (int bound = from + SPECIES.loopBound(Math.max(to - from, 0)); i < bound; i += SPECIES.length())
+		{
+			DoubleVector v = DoubleVector.fromArray(SPECIES, a, i);
+			acc = acc.lanewise(VectorOperators.MAX, v, v.compare(VectorOperators.EQ, v));
+		}
+		double max = acc.reduceLanes(VectorOperators.MAX);
+		for (; i < to; i++)
+			if (a[i] > max)
+				max = a[i];
+		return max;
+	}
+}